@@ -0,0 +1,78 @@
+package caribbean;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+import java.util.Random;
+
+// Seeded games played with random commands: the mid-game states the benchmarks start from
+final class Games {
+    private static final int MAP_WIDTH = 23;
+    private static final int MAP_HEIGHT = 21;
+    private static final String[] COMMANDS = { "WAIT", "FASTER", "SLOWER", "PORT", "STARBOARD", "MINE" };
+
+    // A prepared turn: referee has handled outputs, the commands of each player for round
+    static final class Turn {
+        final Referee referee;
+        final int round;
+        final String[][] outputs;
+
+        Turn(Referee referee, int round, String[][] outputs) {
+            this.referee = referee;
+            this.round = round;
+            this.outputs = outputs;
+        }
+    }
+
+    private Games() {
+    }
+
+    // The game of seed after turns turns, with the commands of the next turn handled. Seeds whose game ends earlier are
+    // replaced by the next ones.
+    static Turn midGame(long seed, int turns) throws Exception {
+        for (;; seed += 1000) {
+            Referee referee = new Referee(System.in, System.out, System.err);
+            Properties prop = new Properties();
+            prop.setProperty("seed", String.valueOf(seed));
+            referee.initReferee(2, prop);
+            Random random = new Random(seed);
+            try {
+                for (int round = 0;; round++) {
+                    referee.prepare(round);
+                    String[][] outputs = new String[2][];
+                    for (int p = 0; p < 2; p++) {
+                        outputs[p] = commands(referee, p, random);
+                        referee.handlePlayerOutput(0, round, p, outputs[p]);
+                    }
+                    if (round == turns) {
+                        return new Turn(referee, round, outputs);
+                    }
+                    referee.updateGame(round);
+                }
+            } catch (GameOverException e) {
+                continue;
+            }
+        }
+    }
+
+    // Random commands for the ships of playerIdx, mostly MOVE and FIRE like real bots
+    static String[] commands(Referee referee, int playerIdx, Random random) {
+        String[] outputs = new String[referee.getExpectedOutputLineCountForPlayer(playerIdx)];
+        for (int i = 0; i < outputs.length; i++) {
+            int command = random.nextInt(10);
+            if (command < 4) {
+                outputs[i] = "MOVE " + random.nextInt(MAP_WIDTH) + " " + random.nextInt(MAP_HEIGHT);
+            } else if (command < 6) {
+                outputs[i] = "FIRE " + random.nextInt(MAP_WIDTH) + " " + random.nextInt(MAP_HEIGHT);
+            } else {
+                outputs[i] = COMMANDS[random.nextInt(COMMANDS.length)];
+            }
+        }
+        return outputs;
+    }
+
+    // The engine and the bot log to stderr on every turn
+    static void quiet() {
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,65 @@
+package caribbean;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Ship.moveTo and Coord.distanceTo on random ships and cells of the map
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+    private static final int SIZE = 1024; // power of 2
+    private static final int MAP_WIDTH = 23;
+    private static final int MAP_HEIGHT = 21;
+
+    private Referee.Ship[] ships;
+    private Referee.Coord[] cells;
+    private int[] targetX;
+    private int[] targetY;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        ships = new Referee.Ship[SIZE];
+        cells = new Referee.Coord[SIZE];
+        targetX = new int[SIZE];
+        targetY = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            ships[i] = new Referee.Ship(i, 1 + random.nextInt(MAP_WIDTH - 2), 1 + random.nextInt(MAP_HEIGHT - 2), random.nextInt(6), 0);
+            ships[i].speed = random.nextInt(3);
+            targetX[i] = random.nextInt(MAP_WIDTH);
+            targetY[i] = random.nextInt(MAP_HEIGHT);
+            cells[i] = Referee.Coord.of(targetX[i], targetY[i]);
+        }
+    }
+
+    @Benchmark
+    public Object moveTo() {
+        int i = next++ & SIZE - 1;
+        Referee.Ship ship = ships[i];
+        int target = i * 7 & SIZE - 1;
+        ship.moveTo(targetX[target], targetY[target]);
+        return ship.action;
+    }
+
+    @Benchmark
+    public int distanceTo() {
+        int i = next++ & SIZE - 1;
+        return cells[i].distanceTo(cells[i * 7 & SIZE - 1]);
+    }
+}
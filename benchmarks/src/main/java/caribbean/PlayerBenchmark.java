@@ -0,0 +1,79 @@
+package caribbean;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One search turn of a new Player on the input recorded from a seeded game. The turn lasts about its time limit,
+// turnMillis, whatever the engine speed: the evaluations counter is the number to compare.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlayerBenchmark {
+    @Param({ "40" })
+    long turnMillis;
+
+    @Param({ "1" })
+    int searchThreads;
+
+    // Rollouts on ArrayReferee instead of the journaled Referee, see -DarrayEngine
+    @Param({ "false", "true" })
+    boolean arrayEngine;
+
+    private byte[] input;
+    private Player player;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Evaluations {
+        public long evaluations;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            evaluations = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void record() throws Exception {
+        Games.quiet();
+        Games.Turn game = Games.midGame(1, 30);
+        input = String.join("\n", game.referee.getInputForPlayer(game.round, 1)).concat("\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Setup(Level.Invocation)
+    public void newPlayer() throws Exception {
+        System.setProperty("arrayEngine", String.valueOf(arrayEngine));
+        player = new Player(turnMillis, turnMillis, searchThreads);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closePlayer() {
+        player.close();
+    }
+
+    @Benchmark
+    public String[] searchTurn(Evaluations evaluations) throws Exception {
+        String[] output = player.play(new Referee.InputReader(new ByteArrayInputStream(input)));
+        evaluations.evaluations += player.getEvaluations();
+        return output;
+    }
+}
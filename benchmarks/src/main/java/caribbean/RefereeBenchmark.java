@@ -0,0 +1,103 @@
+package caribbean;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Referee operations on seeded mid-game states, cycling through GAMES games
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefereeBenchmark {
+    private static final int GAMES = 16;
+
+    @Param({ "10", "60" })
+    int turns;
+
+    private Games.Turn[] games;
+    private Referee board;
+    private final Referee.ArrayReferee arrayBoard = new Referee.ArrayReferee();
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        Games.quiet();
+        games = new Games.Turn[GAMES];
+        for (int i = 0; i < GAMES; i++) {
+            games[i] = Games.midGame(i + 1, turns);
+        }
+        board = games[0].referee.snapshot();
+    }
+
+    private Games.Turn nextGame() {
+        next = (next + 1) % GAMES;
+        return games[next];
+    }
+
+    // Baseline of updateGame, which starts from a copy of the state
+    @Benchmark
+    public Referee restoreFrom() {
+        board.restoreFrom(nextGame().referee);
+        return board;
+    }
+
+    @Benchmark
+    public Referee updateGame() {
+        Games.Turn game = nextGame();
+        board.restoreFrom(game.referee);
+        try {
+            board.updateGame(game.round);
+        } catch (GameOverException e) {
+            // the state is as good as any other
+        }
+        return board;
+    }
+
+    // Baseline of arrayUpdateGame
+    @Benchmark
+    public Referee.ArrayReferee arrayLoadFrom() {
+        arrayBoard.loadFrom(nextGame().referee);
+        return arrayBoard;
+    }
+
+    // The same turn as updateGame on the flat arrays of ArrayReferee
+    @Benchmark
+    public Referee.ArrayReferee arrayUpdateGame() {
+        arrayBoard.loadFrom(nextGame().referee);
+        arrayBoard.updateGame();
+        return arrayBoard;
+    }
+
+    @Benchmark
+    public Object deepCopy() throws Exception {
+        return ObjectCloner.deepCopy(nextGame().referee);
+    }
+
+    @Benchmark
+    public int eval() {
+        return nextGame().referee.eval(1);
+    }
+
+    // Parses the commands of both players again: the ships get the same actions, the state does not drift
+    @Benchmark
+    public Referee handlePlayerOutput() throws Exception {
+        Games.Turn game = nextGame();
+        for (int p = 0; p < game.outputs.length; p++) {
+            game.referee.handlePlayerOutput(0, game.round, p, game.outputs[p]);
+        }
+        return game.referee;
+    }
+}
@@ -22,13 +22,47 @@ import java.util.Properties;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.awt.*;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
 class ObjectCloner
 {
    // so that nobody can accidentally create an ObjectCloner object
@@ -36,6 +70,9 @@ class ObjectCloner
    // returns a deep copy of an object
    static public Object deepCopy(Object oldObj) throws Exception
    {
+      if (Referee.Profile.ENABLED) Referee.Profile.count(Referee.Profile.COPIES);
+      Referee.CopyEvent event = new Referee.CopyEvent();
+      event.begin();
       ObjectOutputStream oos = null;
       ObjectInputStream ois = null;
       try
@@ -50,7 +87,14 @@ class ObjectCloner
                new ByteArrayInputStream(bos.toByteArray()); // E
          ois = new ObjectInputStream(bin);                  // F
          // return the new object
-         return ois.readObject(); // G
+         Object newObj = ois.readObject(); // G
+         if (event.shouldCommit())
+         {
+            event.method = "deepCopy";
+            event.bytes = bos.size();
+            event.commit();
+         }
+         return newObj;
       }
       catch(Exception e)
       {
@@ -164,15 +208,159 @@ class Referee implements Serializable {
         }
     }
 
-    private static final Pattern PLAYER_INPUT_MOVE_PATTERN = Pattern.compile("MOVE (?<x>-?[0-9]{1,8})\\s+(?<y>-?[0-9]{1,8})(?:\\s+(?<message>.+))?",
+    // The grammar of the player output lines, which OutputParser implements without regex (OutputParserTest compares them)
+    static final Pattern PLAYER_INPUT_MOVE_PATTERN = Pattern.compile("MOVE (?<x>-?[0-9]{1,8})\\s+(?<y>-?[0-9]{1,8})(?:\\s+(?<message>.+))?",
             Pattern.CASE_INSENSITIVE);
-    private static final Pattern PLAYER_INPUT_SLOWER_PATTERN = Pattern.compile("SLOWER(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern PLAYER_INPUT_FASTER_PATTERN = Pattern.compile("FASTER(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern PLAYER_INPUT_WAIT_PATTERN = Pattern.compile("WAIT(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern PLAYER_INPUT_PORT_PATTERN = Pattern.compile("PORT(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern PLAYER_INPUT_STARBOARD_PATTERN = Pattern.compile("STARBOARD(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern PLAYER_INPUT_FIRE_PATTERN = Pattern.compile("FIRE (?<x>-?[0-9]{1,8})\\s+(?<y>-?[0-9]{1,8})(?:\\s+(?<message>.+))?");
-    private static final Pattern PLAYER_INPUT_MINE_PATTERN = Pattern.compile("MINE(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    static final Pattern PLAYER_INPUT_SLOWER_PATTERN = Pattern.compile("SLOWER(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    static final Pattern PLAYER_INPUT_FASTER_PATTERN = Pattern.compile("FASTER(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    static final Pattern PLAYER_INPUT_WAIT_PATTERN = Pattern.compile("WAIT(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    static final Pattern PLAYER_INPUT_PORT_PATTERN = Pattern.compile("PORT(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    static final Pattern PLAYER_INPUT_STARBOARD_PATTERN = Pattern.compile("STARBOARD(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+    static final Pattern PLAYER_INPUT_FIRE_PATTERN = Pattern.compile("FIRE (?<x>-?[0-9]{1,8})\\s+(?<y>-?[0-9]{1,8})(?:\\s+(?<message>.+))?");
+    static final Pattern PLAYER_INPUT_MINE_PATTERN = Pattern.compile("MINE(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+
+    // Single pass parser accepting exactly the lines of the PLAYER_INPUT patterns: keywords are ASCII case-insensitive
+    // except FIRE, whitespace is \s and the message cannot hold a line terminator.
+    static final class OutputParser {
+        private String line;
+        private int position;
+        private int messageStart;
+        int x;
+        int y;
+
+        // The Command ordinal of line, -1 when no pattern matches it
+        int parse(String line) {
+            this.line = line;
+            this.position = 0;
+            if (line.isEmpty()) {
+                return -1;
+            }
+            switch (line.charAt(0)) {
+            case 'M':
+            case 'm':
+                if (keyword("MOVE", true)) {
+                    return coordinates() ? Command.MOVE.ordinal() : -1;
+                }
+                return keyword("MINE", true) && parseMessage() ? Command.MINE.ordinal() : -1;
+            case 'F':
+            case 'f':
+                if (keyword("FASTER", true)) {
+                    return parseMessage() ? Command.FASTER.ordinal() : -1;
+                }
+                return keyword("FIRE", false) && coordinates() ? Command.FIRE.ordinal() : -1;
+            case 'S':
+            case 's':
+                if (keyword("SLOWER", true)) {
+                    return parseMessage() ? Command.SLOWER.ordinal() : -1;
+                }
+                return keyword("STARBOARD", true) && parseMessage() ? Command.STARBOARD.ordinal() : -1;
+            case 'P':
+            case 'p':
+                return keyword("PORT", true) && parseMessage() ? Command.PORT.ordinal() : -1;
+            case 'W':
+            case 'w':
+                return keyword("WAIT", true) && parseMessage() ? Command.WAIT.ordinal() : -1;
+            default:
+                return -1;
+            }
+        }
+
+        // The optional message of the last parsed line
+        String message() {
+            return messageStart < line.length() ? line.substring(messageStart) : null;
+        }
+
+        private boolean keyword(String keyword, boolean ignoreCase) {
+            if (!line.regionMatches(ignoreCase, 0, keyword, 0, keyword.length())) {
+                return false;
+            }
+            // regionMatches also folds non ASCII letters, the patterns do not
+            for (int i = 0; i < keyword.length(); i++) {
+                if (line.charAt(i) > 127) {
+                    return false;
+                }
+            }
+            position = keyword.length();
+            return true;
+        }
+
+        // "<keyword> x\s+y" then the message
+        private boolean coordinates() {
+            if (position == line.length() || line.charAt(position) != ' ') {
+                return false;
+            }
+            position++;
+            if (!number()) {
+                return false;
+            }
+            x = y;
+            int start = position;
+            while (position < line.length() && isWhitespace(line.charAt(position))) {
+                position++;
+            }
+            return position > start && number() && parseMessage();
+        }
+
+        // -?[0-9]{1,8} into y, which must be followed by the end of line or a whitespace
+        private boolean number() {
+            boolean negative = position < line.length() && line.charAt(position) == '-';
+            if (negative) {
+                position++;
+            }
+            int start = position;
+            int value = 0;
+            while (position < line.length() && line.charAt(position) >= '0' && line.charAt(position) <= '9') {
+                value = value * 10 + line.charAt(position++) - '0';
+                if (position - start > 8) {
+                    return false;
+                }
+            }
+            if (position == start || position < line.length() && !isWhitespace(line.charAt(position))) {
+                return false;
+            }
+            y = negative ? -value : value;
+            return true;
+        }
+
+        // (?:\s+(?<message>.+))? up to the end of line
+        private boolean parseMessage() {
+            int length = line.length();
+            messageStart = length;
+            if (position == length) {
+                return true;
+            }
+            int start = position;
+            while (position < length && isWhitespace(line.charAt(position))) {
+                position++;
+            }
+            if (position == start) {
+                return false;
+            }
+            if (position == length) {
+                // all whitespace: \s+ gives back the last character to .+
+                if (length - start < 2 || isLineTerminator(line.charAt(length - 1))) {
+                    return false;
+                }
+                messageStart = length - 1;
+                return true;
+            }
+            for (int i = position; i < length; i++) {
+                if (isLineTerminator(line.charAt(i))) {
+                    return false;
+                }
+            }
+            messageStart = position;
+            return true;
+        }
+
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+        }
+
+        private static boolean isLineTerminator(char c) {
+            return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+        }
+    }
 
     public static int clamp(int val, int min, int max) {
         return Math.max(min, Math.min(max, val));
@@ -183,20 +371,70 @@ class Referee implements Serializable {
         return Stream.of(v).map(String::valueOf).collect(Collectors.joining(" "));
     }
 
+    // Same generator as java.util.Random, but its state can be copied by restoreFrom
+    public static class SimulationRandom extends Random implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+        private static final long ADDEND = 0xBL;
+        private static final long MASK = (1L << 48) - 1;
+        private long state;
+
+        public SimulationRandom(long seed) {
+            super(seed);
+        }
+
+        public synchronized void setSeed(long seed) {
+            super.setSeed(seed);
+            this.state = (seed ^ MULTIPLIER) & MASK;
+        }
+
+        protected int next(int bits) {
+            state = (state * MULTIPLIER + ADDEND) & MASK;
+            return (int) (state >>> (48 - bits));
+        }
+
+        public void copyFrom(SimulationRandom other) {
+            this.state = other.state;
+        }
+    }
+
     public static class Coord implements Serializable {
-        private final static int[][] DIRECTIONS_EVEN = new int[][] { { 1, 0 }, { 0, -1 }, { -1, -1 }, { -1, 0 }, { -1, 1 }, { 0, 1 } };
-        private final static int[][] DIRECTIONS_ODD = new int[][] { { 1, 0 }, { 1, -1 }, { 0, -1 }, { -1, 0 }, { 0, 1 }, { 1, 1 } };
+        private final static int[][] DIRECTIONS_EVEN = HexGrid.DIRECTIONS_EVEN;
+        private final static int[][] DIRECTIONS_ODD = HexGrid.DIRECTIONS_ODD;
+        // Shared instance for every cell of the grid, see of()
+        private final static Coord[] CELLS = new Coord[HexGrid.SIZE];
+        private final static Coord MAP_CENTER;
         private final int x;
         private final int y;
+        private final int cell; // HexGrid cell, -1 outside the grid
+
+        static {
+            for (int cell = 0; cell < HexGrid.SIZE; cell++) {
+                CELLS[cell] = new Coord(cell % HexGrid.WIDTH - HexGrid.MARGIN, cell / HexGrid.WIDTH - HexGrid.MARGIN);
+            }
+            MAP_CENTER = of(MAP_WIDTH / 2, MAP_HEIGHT / 2);
+        }
 
         public Coord(int x, int y) {
             this.x = x;
             this.y = y;
+            this.cell = HexGrid.cell(x, y);
         }
 
         public Coord(Coord other) {
             this.x = other.x;
             this.y = other.y;
+            this.cell = other.cell;
+        }
+
+        // Coord is immutable: coordinates on the grid are always the same instance
+        public static Coord of(int x, int y) {
+            int cell = HexGrid.cell(x, y);
+            return cell == -1 ? new Coord(x, y) : CELLS[cell];
+        }
+
+        private Object readResolve() {
+            return cell == -1 ? this : CELLS[cell];
         }
 
         public double angle(Coord targetPosition) {
@@ -219,6 +457,13 @@ class Referee implements Serializable {
         }
 
         Coord neighbor(int orientation) {
+            if (cell != -1) {
+                int neighbor = HexGrid.NEIGHBOR[cell * 6 + orientation];
+                if (neighbor != -1) {
+                    return CELLS[neighbor];
+                }
+            }
+
             int newY, newX;
             if (this.y % 2 == 1) {
                 newY = this.y + DIRECTIONS_ODD[orientation][1];
@@ -228,19 +473,25 @@ class Referee implements Serializable {
                 newX = this.x + DIRECTIONS_EVEN[orientation][0];
             }
 
-            return new Coord(newX, newY);
+            return of(newX, newY);
         }
 
         boolean isInsideMap() {
-            return x >= 0 && x < MAP_WIDTH && y >= 0 && y < MAP_HEIGHT;
+            return cell != -1 && HexGrid.INSIDE_MAP[cell];
         }
 
         int distanceTo(Coord dst) {
-            return this.toCubeCoordinate().distanceTo(dst.toCubeCoordinate());
+            if (cell != -1 && dst.cell != -1) {
+                return HexGrid.DISTANCE[cell * HexGrid.SIZE + dst.cell];
+            }
+            return HexGrid.distance(x, y, dst.x, dst.y);
         }
 
     
         public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
             if (obj == null || getClass() != obj.getClass()) {
                 return false;
             }
@@ -267,7 +518,7 @@ class Referee implements Serializable {
         Coord toOffsetCoordinate() {
             int newX = x + (z - (z & 1)) / 2;
             int newY = z;
-            return new Coord(newX, newY);
+            return Coord.of(newX, newY);
         }
 
         CubeCoordinate neighbor(int orientation) {
@@ -288,29 +539,155 @@ class Referee implements Serializable {
         }
     }
 
+    // Neighbor and distance tables computed once, over the map plus a margin wide enough for a bow on
+    // the border and for the mine drop cell behind a stern. Cells are row-major indexes of that grid.
+    public static final class HexGrid {
+        static final int[][] DIRECTIONS_EVEN = new int[][] { { 1, 0 }, { 0, -1 }, { -1, -1 }, { -1, 0 }, { -1, 1 }, { 0, 1 } };
+        static final int[][] DIRECTIONS_ODD = new int[][] { { 1, 0 }, { 1, -1 }, { 0, -1 }, { -1, 0 }, { 0, 1 }, { 1, 1 } };
+        public static final int MARGIN = 2;
+        public static final int WIDTH = MAP_WIDTH + 2 * MARGIN;
+        public static final int HEIGHT = MAP_HEIGHT + 2 * MARGIN;
+        public static final int SIZE = WIDTH * HEIGHT;
+
+        static final int[] X = new int[SIZE];
+        static final int[] Y = new int[SIZE];
+        static final boolean[] INSIDE_MAP = new boolean[SIZE];
+        // NEIGHBOR[cell * 6 + orientation], -1 when the neighbor is outside the grid
+        static final int[] NEIGHBOR = new int[SIZE * 6];
+        // DISTANCE[cell * SIZE + other]
+        static final byte[] DISTANCE = new byte[SIZE * SIZE];
+
+        static {
+            for (int cell = 0; cell < SIZE; cell++) {
+                int x = cell % WIDTH - MARGIN;
+                int y = cell / WIDTH - MARGIN;
+                X[cell] = x;
+                Y[cell] = y;
+                INSIDE_MAP[cell] = x >= 0 && x < MAP_WIDTH && y >= 0 && y < MAP_HEIGHT;
+                for (int orientation = 0; orientation < 6; orientation++) {
+                    // Same parity test as Coord.neighbor
+                    int[] direction = y % 2 == 1 ? DIRECTIONS_ODD[orientation] : DIRECTIONS_EVEN[orientation];
+                    NEIGHBOR[cell * 6 + orientation] = cell(x + direction[0], y + direction[1]);
+                }
+            }
+            for (int cell = 0; cell < SIZE; cell++) {
+                for (int other = 0; other < SIZE; other++) {
+                    DISTANCE[cell * SIZE + other] = (byte) distance(X[cell], Y[cell], X[other], Y[other]);
+                }
+            }
+        }
+
+        private HexGrid() {
+        }
+
+        // -1 outside the grid
+        public static int cell(int x, int y) {
+            if (x < -MARGIN || x >= MAP_WIDTH + MARGIN || y < -MARGIN || y >= MAP_HEIGHT + MARGIN) {
+                return -1;
+            }
+            return (y + MARGIN) * WIDTH + x + MARGIN;
+        }
+
+        public static int neighbor(int cell, int orientation) {
+            return NEIGHBOR[cell * 6 + orientation];
+        }
+
+        public static boolean isInsideMap(int cell) {
+            return cell != -1 && INSIDE_MAP[cell];
+        }
+
+        public static int distance(int cell, int other) {
+            return DISTANCE[cell * SIZE + other];
+        }
+
+        // Same as Coord.distanceTo, for coordinates that may be outside the grid
+        public static int distance(int x1, int y1, int x2, int y2) {
+            int dx = x1 - (y1 - (y1 & 1)) / 2 - x2 + (y2 - (y2 & 1)) / 2;
+            int dz = y1 - y2;
+            return (Math.abs(dx) + Math.abs(dz) + Math.abs(dx + dz)) / 2;
+        }
+    }
+
+    // Set of HexGrid cells, one bit per cell of the grid in WORDS longs. The static masks hold, for every cell, the
+    // cells within a radius: WORDS longs starting at cell * WORDS.
+    public static final class Bitboard {
+        static final int WORDS = (HexGrid.SIZE + 63) >>> 6;
+        static final long[] SPLASH = radiusMasks(1);
+        static final long[] VISIBILITY = radiusMasks(MINE_VISIBILITY_RANGE);
+
+        private final long[] bits = new long[WORDS];
+
+        private static long[] radiusMasks(int radius) {
+            long[] masks = new long[HexGrid.SIZE * WORDS];
+            for (int cell = 0; cell < HexGrid.SIZE; cell++) {
+                for (int other = 0; other < HexGrid.SIZE; other++) {
+                    if (HexGrid.distance(cell, other) <= radius) {
+                        masks[cell * WORDS + (other >>> 6)] |= 1L << other;
+                    }
+                }
+            }
+            return masks;
+        }
+
+        public static boolean contains(long[] masks, int center, int cell) {
+            return (masks[center * WORDS + (cell >>> 6)] & 1L << cell) != 0;
+        }
+
+        // Same as center.distanceTo(other) <= radius, masks being the radius masks
+        public static boolean within(long[] masks, int radius, Coord center, Coord other) {
+            if (center.cell == -1 || other.cell == -1) {
+                return center.distanceTo(other) <= radius;
+            }
+            return contains(masks, center.cell, other.cell);
+        }
+
+        public boolean get(int cell) {
+            return (bits[cell >>> 6] & 1L << cell) != 0;
+        }
+
+        public void set(int cell) {
+            bits[cell >>> 6] |= 1L << cell;
+        }
+
+        // Ignores the coordinates outside the grid
+        public void set(Coord position) {
+            if (position.cell != -1) {
+                set(position.cell);
+            }
+        }
+
+        public boolean get(Coord position) {
+            return position.cell != -1 && get(position.cell);
+        }
+
+        public void clear() {
+            Arrays.fill(bits, 0);
+        }
+
+        // Adds the mask of center
+        public void or(long[] masks, int center) {
+            for (int i = 0; i < WORDS; i++) {
+                bits[i] |= masks[center * WORDS + i];
+            }
+        }
+    }
+
     private static enum EntityType {
         SHIP, BARREL, MINE, CANNONBALL
     }
 
     public static abstract class Entity implements Serializable {
-        private static int UNIQUE_ENTITY_ID = 0;
-
-        protected final int id;
+        protected int id;
         protected final EntityType type;
         protected Coord position;
+        // toViewString until the entity changes: whatever changes a field of the view string resets it
+        transient String view;
 
-        // WARNING ENTITYID MUST BE UNIQUE
+        // WARNING ENTITYID MUST BE UNIQUE, new entities take Referee.newEntityId()
         public Entity(int entityId, EntityType type, int x, int y) {
-        	UNIQUE_ENTITY_ID = Math.max(UNIQUE_ENTITY_ID, entityId);
             this.id = entityId;
             this.type = type;
-            this.position = new Coord(x, y);
-        }
-        
-        public Entity(EntityType type, int x, int y) {
-            this.id = UNIQUE_ENTITY_ID++;
-            this.type = type;
-            this.position = new Coord(x, y);
+            this.position = Coord.of(x, y);
         }
       
 		public int getId()
@@ -322,14 +699,31 @@ class Referee implements Serializable {
             return join(id, position.y, position.x);
         }
 
+        String view() {
+            if (view == null) {
+                view = toViewString();
+            }
+            return view;
+        }
+
         protected String toPlayerString(int arg1, int arg2, int arg3, int arg4) {
             return join(id, type.name(), position.x, position.y, arg1, arg2, arg3, arg4);
         }
+
+        protected void copyFrom(Entity other) {
+            this.id = other.id;
+            this.position = other.position;
+            this.view = null;
+        }
     }
 
     public static class Mine extends Entity implements Serializable {
-        public Mine(int x, int y) {
-            super(EntityType.MINE, x, y);
+        public Mine(int entityId, int x, int y) {
+            super(entityId, EntityType.MINE, x, y);
+        }
+
+        Mine(Mine other) {
+            super(other.id, EntityType.MINE, other.position.x, other.position.y);
         }
         
         public String toPlayerString(int playerIdx) {
@@ -356,13 +750,13 @@ class Referee implements Serializable {
                 for (Ship ship : ships) {
                     if (ship != victim) {
                         Coord impactPosition = null;
-                        if (ship.stern().distanceTo(position) <= 1) {
+                        if (Bitboard.within(Bitboard.SPLASH, 1, ship.stern(), position)) {
                             impactPosition = ship.stern();
                         }
-                        if (ship.bow().distanceTo(position) <= 1) {
+                        if (Bitboard.within(Bitboard.SPLASH, 1, ship.bow(), position)) {
                             impactPosition = ship.bow();
                         }
-                        if (ship.position.distanceTo(position) <= 1) {
+                        if (Bitboard.within(Bitboard.SPLASH, 1, ship.position, position)) {
                             impactPosition = ship.position;
                         }
 
@@ -379,20 +773,34 @@ class Referee implements Serializable {
     }
 
     public static class Cannonball extends Entity implements Serializable {
-        final int ownerEntityId;
-        final int srcX;
-        final int srcY;
-        final int initialRemainingTurns;
+        int ownerEntityId;
+        int srcX;
+        int srcY;
+        int initialRemainingTurns;
         int remainingTurns;
 
-        public Cannonball(int row, int col, int ownerEntityId, int srcX, int srcY, int remainingTurns) {
-            super(EntityType.CANNONBALL, row, col);
+        public Cannonball(int entityId, int row, int col, int ownerEntityId, int srcX, int srcY, int remainingTurns) {
+            super(entityId, EntityType.CANNONBALL, row, col);
             this.ownerEntityId = ownerEntityId;
             this.srcX = srcX;
             this.srcY = srcY;
             this.initialRemainingTurns = this.remainingTurns = remainingTurns;
         }
 
+        Cannonball(Cannonball other) {
+            super(other.id, EntityType.CANNONBALL, other.position.x, other.position.y);
+            copyFrom(other);
+        }
+
+        protected void copyFrom(Cannonball other) {
+            super.copyFrom(other);
+            this.ownerEntityId = other.ownerEntityId;
+            this.srcX = other.srcX;
+            this.srcY = other.srcY;
+            this.initialRemainingTurns = other.initialRemainingTurns;
+            this.remainingTurns = other.remainingTurns;
+        }
+
         public String toViewString() {
             return join(id, position.y, position.x, srcY, srcX, initialRemainingTurns, remainingTurns, ownerEntityId);
         }
@@ -405,11 +813,21 @@ class Referee implements Serializable {
     public static class RumBarrel extends Entity implements Serializable {
         private int health;
 
-        public RumBarrel(int x, int y, int health) {
-            super(EntityType.BARREL, x, y);
+        public RumBarrel(int entityId, int x, int y, int health) {
+            super(entityId, EntityType.BARREL, x, y);
             this.health = health;
         }
 
+        RumBarrel(RumBarrel other) {
+            super(other.id, EntityType.BARREL, other.position.x, other.position.y);
+            copyFrom(other);
+        }
+
+        protected void copyFrom(RumBarrel other) {
+            super.copyFrom(other);
+            this.health = other.health;
+        }
+
         public String toViewString() {
             return join(id, position.y, position.x, health);
         }
@@ -439,6 +857,78 @@ class Referee implements Serializable {
         FASTER, SLOWER, PORT, STARBOARD, FIRE, MINE
     }
 
+    // Player commands encoded in an int, for simulations that skip the text protocol: the command ordinal in the
+    // low 4 bits, then the MOVE/FIRE target x and y on 12 bits each. 0 is WAIT.
+    public static enum Command {
+        WAIT, MOVE, FASTER, SLOWER, PORT, STARBOARD, FIRE, MINE;
+
+        private static final Command[] VALUES = values();
+        private static final int TARGET_OFFSET = 2048;
+
+        public int encode() {
+            return ordinal();
+        }
+
+        public int encode(int x, int y) {
+            return ordinal() | (x + TARGET_OFFSET) << 4 | (y + TARGET_OFFSET) << 16;
+        }
+
+        public static Command of(int action) {
+            return VALUES[action & 15];
+        }
+
+        public static int x(int action) {
+            return (action >>> 4 & 4095) - TARGET_OFFSET;
+        }
+
+        public static int y(int action) {
+            return (action >>> 16 & 4095) - TARGET_OFFSET;
+        }
+
+        // The output line of the action
+        public static String format(int action) {
+            Command command = of(action);
+            if (command == MOVE || command == FIRE) {
+                return command.name() + " " + x(action) + " " + y(action);
+            }
+            return command.name();
+        }
+    }
+
+    // Ship.moveTo decisions, memoized on first use: they only depend on the ship position, orientation and speed and on the target.
+    // Codes match the ArrayReferee actions.
+    static final class Navigation {
+        static final int WAIT = 0;
+        static final int FASTER = 1;
+        static final int SLOWER = 2;
+        static final int PORT = 3;
+        static final int STARBOARD = 4;
+        static final int NONE = 5; // moveTo keeps the current action
+        static final Action[] ACTIONS = { null, Action.FASTER, Action.SLOWER, Action.PORT, Action.STARBOARD };
+
+        private static final int MAP_CELLS = MAP_WIDTH * MAP_HEIGHT;
+        private static final int SPEEDS = 3;
+        // code + 1 for a ship on mapCell with orientation and speed going to the target mapCell, 0 when not computed yet
+        private static final byte[] MOVES = new byte[MAP_CELLS * 6 * SPEEDS * MAP_CELLS];
+
+        private Navigation() {
+        }
+
+        static int move(Coord position, int orientation, int speed, int x, int y) {
+            if (!position.isInsideMap() || x < 0 || x >= MAP_WIDTH || y < 0 || y >= MAP_HEIGHT || speed < 0 || speed >= SPEEDS) {
+                return Ship.computeMove(position, orientation, speed, Coord.of(x, y));
+            }
+
+            int index = ((((position.y * MAP_WIDTH + position.x) * 6 + orientation) * SPEEDS + speed) * MAP_CELLS) + y * MAP_WIDTH + x;
+            int move = MOVES[index] - 1;
+            if (move == -1) {
+                move = Ship.computeMove(position, orientation, speed, Coord.of(x, y));
+                MOVES[index] = (byte) (move + 1);
+            }
+            return move;
+        }
+    }
+
     public static class Ship extends Entity implements Serializable {
         int orientation;
         int speed;
@@ -454,6 +944,7 @@ class Referee implements Serializable {
         public Coord newPosition;
         public Coord newBowCoordinate;
         public Coord newSternCoordinate;
+        long zobristKey; // contribution of this ship to the Referee hash, see rehashShips
         
         // WARNING ENTITYID MUST BE UNIQUE (except for save)
         public Ship(int entityId, int x, int y, int orientation, int health, int owner) {
@@ -464,22 +955,47 @@ class Referee implements Serializable {
             this.owner = owner;
         }
         
-        public Ship(int x, int y, int orientation, int owner) {
-            super(EntityType.SHIP, x, y);
+        public Ship(int entityId, int x, int y, int orientation, int owner) {
+            super(entityId, EntityType.SHIP, x, y);
             this.orientation = orientation;
             this.speed = 0;
             this.health = INITIAL_SHIP_HEALTH;
             this.owner = owner;
         }
         
+        Ship(Ship other) {
+            super(other.id, EntityType.SHIP, other.position.x, other.position.y);
+            copyFrom(other);
+        }
+
+        protected void copyFrom(Ship other) {
+            super.copyFrom(other);
+            this.orientation = other.orientation;
+            this.speed = other.speed;
+            this.health = other.health;
+            this.initialHealth = other.initialHealth;
+            this.owner = other.owner;
+            this.message = other.message;
+            this.action = other.action;
+            this.mineCooldown = other.mineCooldown;
+            this.cannonCooldown = other.cannonCooldown;
+            this.target = other.target;
+            this.newOrientation = other.newOrientation;
+            this.newPosition = other.newPosition;
+            this.newBowCoordinate = other.newBowCoordinate;
+            this.newSternCoordinate = other.newSternCoordinate;
+            this.zobristKey = other.zobristKey;
+        }
+
         public void update(int entityId, int x, int y, int orientation, int speed, int health, int owner)
         {
         	if (entityId == this.id)
         	{
-                this.position = new Coord(x, y);
+                this.position = Coord.of(x, y);
                 this.orientation = orientation;
                 this.speed = speed;
 				this.health = health;
+				this.view = null;
         	}
         }
         
@@ -548,31 +1064,39 @@ class Referee implements Serializable {
         }
 
         public void moveTo(int x, int y) {
-            Coord currentPosition = this.position;
-            Coord targetPosition = new Coord(x, y);
+            int move = Navigation.move(position, orientation, speed, x, y);
+            if (move != Navigation.NONE) {
+                this.action = Navigation.ACTIONS[move];
+            }
+        }
+
+        // Decision of moveTo as a Navigation code, NONE when the speed is unknown
+        static int computeMove(Coord position, int orientation, int speed, Coord targetPosition) {
+            Coord currentPosition = position;
 
             if (currentPosition.equals(targetPosition)) {
-                this.action = Action.SLOWER;
-                return;
+                return Navigation.SLOWER;
             }
 
+            int action = Navigation.NONE;
+
             double targetAngle, angleStraight, anglePort, angleStarboard, centerAngle, anglePortCenter, angleStarboardCenter;
 
             switch (speed) {
             case 2:
-                this.action = Action.SLOWER;
+                action = Navigation.SLOWER;
                 break;
             case 1:
                 // Suppose we've moved first
                 currentPosition = currentPosition.neighbor(orientation);
                 if (!currentPosition.isInsideMap()) {
-                    this.action = Action.SLOWER;
+                    action = Navigation.SLOWER;
                     break;
                 }
 
                 // Target reached at next turn
                 if (currentPosition.equals(targetPosition)) {
-                    this.action = null;
+                    action = Navigation.WAIT;
                     break;
                 }
 
@@ -582,13 +1106,13 @@ class Referee implements Serializable {
                 anglePort = Math.min(Math.abs((orientation + 1) - targetAngle), Math.abs((orientation - 5) - targetAngle));
                 angleStarboard = Math.min(Math.abs((orientation + 5) - targetAngle), Math.abs((orientation - 1) - targetAngle));
 
-                centerAngle = currentPosition.angle(new Coord(MAP_WIDTH / 2, MAP_HEIGHT / 2));
+                centerAngle = currentPosition.angle(Coord.MAP_CENTER);
                 anglePortCenter = Math.min(Math.abs((orientation + 1) - centerAngle), Math.abs((orientation - 5) - centerAngle));
                 angleStarboardCenter = Math.min(Math.abs((orientation + 5) - centerAngle), Math.abs((orientation - 1) - centerAngle));
 
                 // Next to target with bad angle, slow down then rotate (avoid to turn around the target!)
                 if (currentPosition.distanceTo(targetPosition) == 1 && angleStraight > 1.5) {
-                    this.action = Action.SLOWER;
+                    action = Navigation.SLOWER;
                     break;
                 }
 
@@ -598,7 +1122,7 @@ class Referee implements Serializable {
                 Coord nextPosition = currentPosition.neighbor(orientation);
                 if (nextPosition.isInsideMap()) {
                     distanceMin = nextPosition.distanceTo(targetPosition);
-                    this.action = null;
+                    action = Navigation.WAIT;
                 }
 
                 // Test port
@@ -607,7 +1131,7 @@ class Referee implements Serializable {
                     int distance = nextPosition.distanceTo(targetPosition);
                     if (distanceMin == null || distance < distanceMin || distance == distanceMin && anglePort < angleStraight - 0.5) {
                         distanceMin = distance;
-                        this.action = Action.PORT;
+                        action = Navigation.PORT;
                     }
                 }
 
@@ -616,14 +1140,14 @@ class Referee implements Serializable {
                 if (nextPosition.isInsideMap()) {
                     int distance = nextPosition.distanceTo(targetPosition);
                     if (distanceMin == null || distance < distanceMin
-                            || (distance == distanceMin && angleStarboard < anglePort - 0.5 && this.action == Action.PORT)
-                            || (distance == distanceMin && angleStarboard < angleStraight - 0.5 && this.action == null)
-                            || (distance == distanceMin && this.action == Action.PORT && angleStarboard == anglePort
+                            || (distance == distanceMin && angleStarboard < anglePort - 0.5 && action == Navigation.PORT)
+                            || (distance == distanceMin && angleStarboard < angleStraight - 0.5 && action == Navigation.WAIT)
+                            || (distance == distanceMin && action == Navigation.PORT && angleStarboard == anglePort
                                     && angleStarboardCenter < anglePortCenter)
-                            || (distance == distanceMin && this.action == Action.PORT && angleStarboard == anglePort
+                            || (distance == distanceMin && action == Navigation.PORT && angleStarboard == anglePort
                                     && angleStarboardCenter == anglePortCenter && (orientation == 1 || orientation == 4))) {
                         distanceMin = distance;
-                        this.action = Action.STARBOARD;
+                        action = Navigation.STARBOARD;
                     }
                 }
                 break;
@@ -634,29 +1158,29 @@ class Referee implements Serializable {
                 anglePort = Math.min(Math.abs((orientation + 1) - targetAngle), Math.abs((orientation - 5) - targetAngle));
                 angleStarboard = Math.min(Math.abs((orientation + 5) - targetAngle), Math.abs((orientation - 1) - targetAngle));
 
-                centerAngle = currentPosition.angle(new Coord(MAP_WIDTH / 2, MAP_HEIGHT / 2));
+                centerAngle = currentPosition.angle(Coord.MAP_CENTER);
                 anglePortCenter = Math.min(Math.abs((orientation + 1) - centerAngle), Math.abs((orientation - 5) - centerAngle));
                 angleStarboardCenter = Math.min(Math.abs((orientation + 5) - centerAngle), Math.abs((orientation - 1) - centerAngle));
 
                 Coord forwardPosition = currentPosition.neighbor(orientation);
 
-                this.action = null;
+                action = Navigation.WAIT;
 
                 if (anglePort <= angleStarboard) {
-                    this.action = Action.PORT;
+                    action = Navigation.PORT;
                 }
 
                 if (angleStarboard < anglePort || angleStarboard == anglePort && angleStarboardCenter < anglePortCenter
                         || angleStarboard == anglePort && angleStarboardCenter == anglePortCenter && (orientation == 1 || orientation == 4)) {
-                    this.action = Action.STARBOARD;
+                    action = Navigation.STARBOARD;
                 }
 
                 if (forwardPosition.isInsideMap() && angleStraight <= anglePort && angleStraight <= angleStarboard) {
-                    this.action = Action.FASTER;
+                    action = Navigation.FASTER;
                 }
                 break;
             }
-
+            return action;
         }
 
         public void faster() {
@@ -750,7 +1274,7 @@ class Referee implements Serializable {
 
         public void fire(int x, int y) {
             if (CANNONS_ENABLED) {
-                Coord target = new Coord(x, y);
+                Coord target = Coord.of(x, y);
                 this.target = target;
                 this.action = Action.FIRE;
             }
@@ -771,6 +1295,7 @@ class Referee implements Serializable {
         public void setDead() {
             for (Ship ship : ships) {
                 ship.health = 0;
+                ship.view = null;
             }
         }
 
@@ -787,7 +1312,7 @@ class Referee implements Serializable {
 
             data.add(String.valueOf(this.id));
             for (Ship ship : ships) {
-                data.add(ship.toViewString());
+                data.add(ship.view());
             }
 
             return data;
@@ -819,12 +1344,83 @@ class Referee implements Serializable {
     private int shipsPerPlayer;
     private int mineCount;
     private int barrelCount;
-    private Random random;
+    private int nextEntityId; // see newEntityId
+    private SimulationRandom random;
+
+    // Spare entities reused by restoreFrom, so that resetting a search board does not allocate
+    private transient OutputParser outputParser;
+    private transient List<Ship> shipPool;
+    private transient List<Mine> minePool;
+    private transient List<RumBarrel> barrelPool;
+    private transient List<Cannonball> cannonballPool;
+    private transient Ship[] shipSources;
+    private transient Ship[] shipTargets;
+
+    // Undo journal: while journaling, every change made by prepare, handlePlayerOutput and updateGame is logged so that undo can
+    // roll the state back to a journalMark. Entries are int payloads followed by their JOURNAL_* op, plus the objects they reference.
+    private static final int JOURNAL_SHIP = 0;
+    private static final int JOURNAL_LIST_ADD = 1;
+    private static final int JOURNAL_LIST_REMOVE = 2;
+    private static final int JOURNAL_CANNONBALL_TURNS = 3;
+    private static final int JOURNAL_HASH = 4;
+    private static final int JOURNAL_ENTITY_ID = 5;
+    private static final int LIST_CANNONBALLS = 0;
+    private static final int LIST_MINES = 1;
+    private static final int LIST_BARRELS = 2;
+    private static final int LIST_SHIPS = 3;
+    private static final int LIST_DAMAGE = 4;
+    private static final int LIST_EXPLOSIONS = 5;
+    private static final int LIST_SHIPS_ALIVE = 6; // + player index
+    private transient boolean journaling;
+    private transient int[] journal;
+    private transient int journalSize;
+    private transient Object[] journalObjects;
+    private transient int journalObjectCount;
+
+    // Zobrist hash of ships, barrels, mines and cannonballs. The turn phases update it incrementally; the input methods
+    // only invalidate it and prepare recomputes it.
+    private static final long ZOBRIST_SHIP = 1;
+    private static final long ZOBRIST_BARREL = 2;
+    private static final long ZOBRIST_MINE = 3;
+    private static final long ZOBRIST_CANNONBALL = 4;
+    private static final long ZOBRIST_DEPTH = 5;
+    private long zobrist;
+    private boolean zobristValid;
+
+    // Per-cell occupancy: barrel and mine counts and the first barrel and mine of the list on each cell follow
+    // add/removeAt and undo, other changes of the lists invalidate them until the next updateGame. Ship parts are
+    // stamped again by markShips whenever ships may have moved.
+    private transient boolean occupancyValid;
+    private transient int[] barrelsOnCell;
+    private transient int[] minesOnCell;
+    private transient RumBarrel[] barrelOnCell;
+    private transient Mine[] mineOnCell;
+    private transient int[] shipCellStamp;
+    private transient int[] shipCellCount;
+    private transient Ship[] shipCellShip; // first ship of the list on the cell
+    private transient boolean[] shipCellCenter;
+    private transient int shipStamp;
+
+    // View lines of the last frame given to the viewer by entity id, per LIST_* kind, and the ones of the frame being
+    // built: frames that are not key frames only hold the differences
+    private transient List<Map<Integer, String>> viewLines;
+    private transient List<Map<Integer, String>> nextViewLines;
 
     public Referee(InputStream is, PrintStream out, PrintStream err) throws IOException {
         // super(is, out, err);
     }
 
+    private Referee() {
+        this.cannonballs = new ArrayList<>();
+        this.mines = new ArrayList<>();
+        this.barrels = new ArrayList<>();
+        this.players = new ArrayList<>();
+        this.ships = new ArrayList<>();
+        this.damage = new ArrayList<>();
+        this.cannonBallExplosions = new ArrayList<>();
+        this.random = new SimulationRandom(0);
+    }
+
     public static void main(String... args) throws IOException {
         new Referee(System.in, System.out, System.err);
     }
@@ -832,7 +1428,7 @@ class Referee implements Serializable {
     protected void initEmptyReferee(int playerCount, Properties prop) throws InvalidFormatException
     {
         seed = Long.valueOf(prop.getProperty("seed", String.valueOf(new Random(System.currentTimeMillis()).nextLong())));
-        random = new Random(this.seed);
+        random = new SimulationRandom(this.seed);
 
         shipsPerPlayer = clamp(
                 Integer.valueOf(prop.getProperty("shipsPerPlayer", String.valueOf(random.nextInt(1 + MAX_SHIPS - MIN_SHIPS) + MIN_SHIPS))), MIN_SHIPS,
@@ -862,12 +1458,15 @@ class Referee implements Serializable {
         this.ships = new ArrayList<>();
         this.mines = new ArrayList<>();
         this.barrels = new ArrayList<>();
+        this.zobristValid = false;
+        this.occupancyValid = false;
+        this.nextEntityId = 0;
     }
     
 
     protected void initReferee(int playerCount, Properties prop) throws InvalidFormatException {
         seed = Long.valueOf(prop.getProperty("seed", String.valueOf(new Random(System.currentTimeMillis()).nextLong())));
-        random = new Random(this.seed);
+        random = new SimulationRandom(this.seed);
 
         shipsPerPlayer = clamp(
                 Integer.valueOf(prop.getProperty("shipsPerPlayer", String.valueOf(random.nextInt(1 + MAX_SHIPS - MIN_SHIPS) + MIN_SHIPS))), MIN_SHIPS,
@@ -893,6 +1492,7 @@ class Referee implements Serializable {
         for (int i = 0; i < playerCount; i++) {
             this.players.add(new Player(i));
         }
+        nextEntityId = 0;
         // Generate Ships
         for (int j = 0; j < shipsPerPlayer; j++) {
             int xMin = 1 + j * MAP_WIDTH / shipsPerPlayer;
@@ -902,8 +1502,8 @@ class Referee implements Serializable {
             int x = xMin + random.nextInt(1 + xMax - xMin);
             int orientation = random.nextInt(6);
 
-            Ship ship0 = new Ship(x, y, orientation, 0);
-            Ship ship1 = new Ship(x, MAP_HEIGHT - 1 - y, (6 - orientation) % 6, 1);
+            Ship ship0 = new Ship(newEntityId(), x, y, orientation, 0);
+            Ship ship1 = new Ship(newEntityId(), x, MAP_HEIGHT - 1 - y, (6 - orientation) % 6, 1);
 
             this.players.get(0).ships.add(ship0);
             this.players.get(1).ships.add(ship1);
@@ -913,55 +1513,65 @@ class Referee implements Serializable {
 
         this.ships = players.stream().map(p -> p.ships).flatMap(List::stream).collect(Collectors.toList());
 
+        Bitboard shipCells = new Bitboard();
+        for (Ship ship : ships) {
+            shipCells.set(ship.position);
+            shipCells.set(ship.bow());
+            shipCells.set(ship.stern());
+        }
+
         // Generate mines
         mines = new ArrayList<>();
+        Bitboard mineCells = new Bitboard();
         while (mines.size() < mineCount) {
             int x = 1 + random.nextInt(MAP_WIDTH - 2);
             int y = 1 + random.nextInt(MAP_HEIGHT / 2);
 
-            Mine m = new Mine(x, y);
+            Mine m = new Mine(newEntityId(), x, y);
 
-            boolean cellIsFreeOfMines = mines.stream().noneMatch(mine -> mine.position.equals(m.position));
-            boolean cellIsFreeOfShips = ships.stream().noneMatch(ship -> ship.at(m.position));
+            boolean cellIsFreeOfMines = !mineCells.get(m.position);
+            boolean cellIsFreeOfShips = !shipCells.get(m.position);
 
             if (cellIsFreeOfShips && cellIsFreeOfMines) {
                 if (y != MAP_HEIGHT - 1 - y) {
-                    mines.add(new Mine(x, MAP_HEIGHT - 1 - y));
+                    Mine mirror = new Mine(newEntityId(), x, MAP_HEIGHT - 1 - y);
+                    mines.add(mirror);
+                    mineCells.set(mirror.position);
                 }
                 mines.add(m);
+                mineCells.set(m.position);
             }
         }
         mineCount = mines.size();
 
         // Generate supplies
         barrels = new ArrayList<>();
+        Bitboard barrelCells = new Bitboard();
         while (barrels.size() < barrelCount) {
             int x = 1 + random.nextInt(MAP_WIDTH - 2);
             int y = 1 + random.nextInt(MAP_HEIGHT / 2);
             int h = MIN_RUM_BARREL_VALUE + random.nextInt(1 + MAX_RUM_BARREL_VALUE - MIN_RUM_BARREL_VALUE);
 
-            RumBarrel m = new RumBarrel(x, y, h);
+            RumBarrel m = new RumBarrel(newEntityId(), x, y, h);
 
-            boolean cellIsFreeOfBarrels = barrels.stream().noneMatch(barrel -> barrel.position.equals(m.position));
-            boolean cellIsFreeOfMines = mines.stream().noneMatch(mine -> mine.position.equals(m.position));
-            boolean cellIsFreeOfShips = ships.stream().noneMatch(ship -> ship.at(m.position));
+            boolean cellIsFreeOfBarrels = !barrelCells.get(m.position);
+            boolean cellIsFreeOfMines = !mineCells.get(m.position);
+            boolean cellIsFreeOfShips = !shipCells.get(m.position);
 
             if (cellIsFreeOfShips && cellIsFreeOfMines && cellIsFreeOfBarrels) {
                 if (y != MAP_HEIGHT - 1 - y) {
-                    barrels.add(new RumBarrel(x, MAP_HEIGHT - 1 - y, h));
+                    RumBarrel mirror = new RumBarrel(newEntityId(), x, MAP_HEIGHT - 1 - y, h);
+                    barrels.add(mirror);
+                    barrelCells.set(mirror.position);
                 }
                 barrels.add(m);
+                barrelCells.set(m.position);
             }
         }
         barrelCount = barrels.size();
-        
-        this.ships = new ArrayList<>();
-        this.mines = new ArrayList<>();
-        this.barrels = new ArrayList<>();
-        this.damage = new ArrayList<>();
-        for (int i = 0; i < playerCount; i++) {
-            this.players.add(new Player(i));
-        }
+
+        this.zobristValid = false;
+        this.occupancyValid = false;
     }
 
     protected Properties getConfiguration() {
@@ -973,108 +1583,688 @@ class Referee implements Serializable {
         return prop;
     }
 
-
-    protected void prepare(int round) {
-        for (Player player : players) {
-            for (Ship ship : player.ships) {
-                ship.action = null;
-				ship.message = null;
-            }
-        }
-        cannonBallExplosions.clear();
-        damage.clear();
+    // Ids of the entities created by this game, so that games running side by side do not share a counter
+    protected int newEntityId() {
+        return nextEntityId++;
     }
 
-
-    protected int getExpectedOutputLineCountForPlayer(int playerIdx) {
-        return this.players.get(playerIdx).shipsAlive.size();
+    // Keep newEntityId above an id that came from the input
+    protected void reserveEntityId(int entityId) {
+        nextEntityId = Math.max(nextEntityId, entityId + 1);
     }
 
+    // Independent copy of the game state, equivalent to ObjectCloner.deepCopy but without serialization
+    protected Referee snapshot() {
+        Referee copy = new Referee();
+        copy.restoreFrom(this);
+        return copy;
+    }
 
-    protected void handlePlayerOutput(int frame, int round, int playerIdx, String[] outputs)
-            throws WinException, LostException, InvalidInputException {
-        Player player = this.players.get(playerIdx);
-
-        try {
-            int i = 0;
-            for (String line : outputs) {
-                Matcher matchWait = PLAYER_INPUT_WAIT_PATTERN.matcher(line);
-                Matcher matchMove = PLAYER_INPUT_MOVE_PATTERN.matcher(line);
-                Matcher matchFaster = PLAYER_INPUT_FASTER_PATTERN.matcher(line);
-                Matcher matchSlower = PLAYER_INPUT_SLOWER_PATTERN.matcher(line);
-                Matcher matchPort = PLAYER_INPUT_PORT_PATTERN.matcher(line);
-                Matcher matchStarboard = PLAYER_INPUT_STARBOARD_PATTERN.matcher(line);
-                Matcher matchFire = PLAYER_INPUT_FIRE_PATTERN.matcher(line);
-                Matcher matchMine = PLAYER_INPUT_MINE_PATTERN.matcher(line);
-                Ship ship = player.shipsAlive.get(i++);
+    // Overwrite this game state with the one of snapshot, reusing the entities this referee already owns
+    protected void restoreFrom(Referee snapshot) {
+        if (Profile.ENABLED) {
+            Profile.count(Profile.COPIES);
+        }
+        CopyEvent event = new CopyEvent();
+        event.begin();
+        AllocationEvent allocation = new AllocationEvent();
+        int owned = allocation.isEnabled() ? ownedEntities() : 0;
+        if (shipPool == null) {
+            shipPool = new ArrayList<>();
+            minePool = new ArrayList<>();
+            barrelPool = new ArrayList<>();
+            cannonballPool = new ArrayList<>();
+            shipSources = new Ship[2 * MAX_SHIPS];
+            shipTargets = new Ship[2 * MAX_SHIPS];
+        }
 
-                if (matchMove.matches()) {
-                    int x = Integer.parseInt(matchMove.group("x"));
-                    int y = Integer.parseInt(matchMove.group("y"));
-                    ship.setMessage(matchMove.group("message"));
-                    ship.moveTo(x, y);
-                } else if (matchFaster.matches()) {
-                    ship.setMessage(matchFaster.group("message"));
-                    ship.faster();
-                } else if (matchSlower.matches()) {
-                    ship.setMessage(matchSlower.group("message"));
-                    ship.slower();
-                } else if (matchPort.matches()) {
-                    ship.setMessage(matchPort.group("message"));
-                    ship.port();
-                } else if (matchStarboard.matches()) {
-                    ship.setMessage(matchStarboard.group("message"));
-                    ship.starboard();
-                } else if (matchWait.matches()) {
-                    ship.setMessage(matchWait.group("message"));
-                } else if (matchMine.matches()) {
-                    ship.setMessage(matchMine.group("message"));
-                    ship.placeMine();
-                } else if (matchFire.matches()) {
-                    int x = Integer.parseInt(matchFire.group("x"));
-                    int y = Integer.parseInt(matchFire.group("y"));
-                    ship.setMessage(matchFire.group("message"));
-                    ship.fire(x, y);
-                } else {
-                    throw new InvalidInputException("A valid action", line);
-                }
+        this.journalSize = 0;
+        this.journalObjectCount = 0;
+        this.seed = snapshot.seed;
+        this.shipsPerPlayer = snapshot.shipsPerPlayer;
+        this.mineCount = snapshot.mineCount;
+        this.barrelCount = snapshot.barrelCount;
+        this.random.copyFrom(snapshot.random);
+        this.zobrist = snapshot.zobrist;
+        this.zobristValid = snapshot.zobristValid;
+        this.occupancyValid = false;
+        this.nextEntityId = snapshot.nextEntityId;
+
+        for (int i = 0; i < cannonballs.size(); i++) {
+            cannonballPool.add(cannonballs.get(i));
+        }
+        cannonballs.clear();
+        for (int i = 0; i < snapshot.cannonballs.size(); i++) {
+            Cannonball source = snapshot.cannonballs.get(i);
+            Cannonball ball;
+            if (cannonballPool.isEmpty()) {
+                ball = new Cannonball(source);
+            } else {
+                ball = cannonballPool.remove(cannonballPool.size() - 1);
+                ball.copyFrom(source);
             }
-        } catch (InvalidInputException e) {
-            player.setDead();
-            throw e;
+            cannonballs.add(ball);
         }
-    }
 
-    private void decrementRum() {
-        for (Ship ship : ships) {
-            ship.damage(1);
+        for (int i = 0; i < mines.size(); i++) {
+            minePool.add(mines.get(i));
+        }
+        mines.clear();
+        for (int i = 0; i < snapshot.mines.size(); i++) {
+            Mine source = snapshot.mines.get(i);
+            Mine mine;
+            if (minePool.isEmpty()) {
+                mine = new Mine(source);
+            } else {
+                mine = minePool.remove(minePool.size() - 1);
+                mine.copyFrom(source);
+            }
+            mines.add(mine);
         }
-    }
 
-    private void updateInitialRum() {
-        for (Ship ship : ships) {
-            ship.initialHealth = ship.health;
+        for (int i = 0; i < barrels.size(); i++) {
+            barrelPool.add(barrels.get(i));
+        }
+        barrels.clear();
+        for (int i = 0; i < snapshot.barrels.size(); i++) {
+            RumBarrel source = snapshot.barrels.get(i);
+            RumBarrel barrel;
+            if (barrelPool.isEmpty()) {
+                barrel = new RumBarrel(source);
+            } else {
+                barrel = barrelPool.remove(barrelPool.size() - 1);
+                barrel.copyFrom(source);
+            }
+            barrels.add(barrel);
         }
-    }
 
-    private void moveCannonballs() {
-        for (Iterator<Cannonball> it = cannonballs.iterator(); it.hasNext();) {
-            Cannonball ball = it.next();
-            if (ball.remainingTurns == 0) {
-                it.remove();
-                continue;
-            } else if (ball.remainingTurns > 0) {
-                ball.remainingTurns--;
+        // Ships are shared by the referee list and the player lists: copy each one once, then rebuild every list from the copies
+        for (Player player : players) {
+            for (int i = 0; i < player.ships.size(); i++) {
+                shipPool.add(player.ships.get(i));
+            }
+        }
+        int shipCount = 0;
+        for (Player player : snapshot.players) {
+            for (int i = 0; i < player.ships.size(); i++) {
+                shipCount = copyShip(player.ships.get(i), shipCount);
             }
+        }
+        for (int i = 0; i < snapshot.ships.size(); i++) {
+            shipCount = copyShip(snapshot.ships.get(i), shipCount);
+        }
 
-            if (ball.remainingTurns == 0) {
-                cannonBallExplosions.add(ball.position);
+        while (players.size() > snapshot.players.size()) {
+            players.remove(players.size() - 1);
+        }
+        for (int p = 0; p < snapshot.players.size(); p++) {
+            Player source = snapshot.players.get(p);
+            if (players.size() <= p) {
+                players.add(new Player(source.id));
             }
+            Player player = players.get(p);
+            player.id = source.id;
+            copyShipList(source.ships, player.ships, shipCount);
+            copyShipList(source.shipsAlive, player.shipsAlive, shipCount);
+        }
+        copyShipList(snapshot.ships, ships, shipCount);
+        for (int i = 0; i < shipCount; i++) {
+            shipSources[i] = null;
         }
-    }
 
-    private void applyActions() {
-        for (Player player : players) {
+        damage.clear();
+        for (int i = 0; i < snapshot.damage.size(); i++) {
+            damage.add(snapshot.damage.get(i));
+        }
+        cannonBallExplosions.clear();
+        for (int i = 0; i < snapshot.cannonBallExplosions.size(); i++) {
+            cannonBallExplosions.add(snapshot.cannonBallExplosions.get(i));
+        }
+
+        if (event.shouldCommit()) {
+            event.method = "restoreFrom";
+            event.entities = cannonballs.size() + mines.size() + barrels.size() + shipCount;
+            event.commit();
+        }
+        if (allocation.isEnabled() && ownedEntities() > owned) {
+            allocation.site = "Referee.restoreFrom";
+            allocation.objects = ownedEntities() - owned;
+            allocation.commit();
+        }
+    }
+
+    // Entities held by the lists and the pools: their number only grows when restoreFrom allocates
+    private int ownedEntities() {
+        int owned = cannonballs.size() + mines.size() + barrels.size();
+        for (Player player : players) {
+            owned += player.ships.size();
+        }
+        if (shipPool != null) {
+            owned += shipPool.size() + minePool.size() + barrelPool.size() + cannonballPool.size();
+        }
+        return owned;
+    }
+
+    private int copyShip(Ship source, int shipCount) {
+        for (int i = 0; i < shipCount; i++) {
+            if (shipSources[i] == source) {
+                return shipCount;
+            }
+        }
+        if (shipCount == shipSources.length) {
+            shipSources = Arrays.copyOf(shipSources, 2 * shipCount);
+            shipTargets = Arrays.copyOf(shipTargets, 2 * shipCount);
+        }
+        Ship ship;
+        if (shipPool.isEmpty()) {
+            ship = new Ship(source);
+        } else {
+            ship = shipPool.remove(shipPool.size() - 1);
+            ship.copyFrom(source);
+        }
+        shipSources[shipCount] = source;
+        shipTargets[shipCount] = ship;
+        return shipCount + 1;
+    }
+
+    private void copyShipList(List<Ship> source, List<Ship> target, int shipCount) {
+        target.clear();
+        for (int i = 0; i < source.size(); i++) {
+            Ship ship = source.get(i);
+            for (int j = 0; j < shipCount; j++) {
+                if (shipSources[j] == ship) {
+                    target.add(shipTargets[j]);
+                    break;
+                }
+            }
+        }
+    }
+
+
+    protected void prepare(int round) {
+        if (!zobristValid) {
+            rehash();
+        }
+        if (journaling) {
+            pushJournal((int) zobrist);
+            pushJournal((int) (zobrist >>> 32));
+            pushJournal(JOURNAL_HASH);
+            pushJournal(nextEntityId);
+            pushJournal(JOURNAL_ENTITY_ID);
+            journalShips();
+        }
+        for (Player player : players) {
+            for (Ship ship : player.ships) {
+                if (ship.action != null || ship.message != null) {
+                    ship.view = null;
+                }
+                ship.action = null;
+				ship.message = null;
+            }
+        }
+        clear(cannonBallExplosions, LIST_EXPLOSIONS);
+        clear(damage, LIST_DAMAGE);
+    }
+
+    // Start journaling if needed and return the position to give to undo
+    protected int journalMark() {
+        if (!journaling) {
+            journaling = true;
+            if (journal == null) {
+                journal = new int[4096];
+                journalObjects = new Object[1024];
+            }
+            journalSize = 0;
+            journalObjectCount = 0;
+        }
+        return journalSize;
+    }
+
+    protected void stopJournal() {
+        journaling = false;
+        journalSize = 0;
+        Arrays.fill(journalObjects, 0, journalObjectCount, null);
+        journalObjectCount = 0;
+    }
+
+    // Roll back every change journaled since mark (a journaled turn must start with prepare)
+    @SuppressWarnings("unchecked")
+    protected void undo(int mark) {
+        while (journalSize > mark) {
+            int op = journal[--journalSize];
+            switch (op) {
+            case JOURNAL_SHIP: {
+                Ship ship = (Ship) journalObjects[journalObjectCount - 8];
+                ship.position = (Coord) journalObjects[journalObjectCount - 7];
+                ship.action = (Action) journalObjects[journalObjectCount - 6];
+                ship.message = (String) journalObjects[journalObjectCount - 5];
+                ship.target = (Coord) journalObjects[journalObjectCount - 4];
+                ship.newPosition = (Coord) journalObjects[journalObjectCount - 3];
+                ship.newBowCoordinate = (Coord) journalObjects[journalObjectCount - 2];
+                ship.newSternCoordinate = (Coord) journalObjects[journalObjectCount - 1];
+                popJournalObjects(8);
+                long key = (long) journal[--journalSize] << 32;
+                ship.zobristKey = key | (journal[--journalSize] & 0xFFFFFFFFL);
+                ship.newOrientation = journal[--journalSize];
+                ship.cannonCooldown = journal[--journalSize];
+                ship.mineCooldown = journal[--journalSize];
+                ship.initialHealth = journal[--journalSize];
+                ship.health = journal[--journalSize];
+                ship.speed = journal[--journalSize];
+                ship.orientation = journal[--journalSize];
+                ship.view = null;
+                break;
+            }
+            case JOURNAL_LIST_ADD: {
+                int listId = journal[--journalSize];
+                List<?> list = journaledList(listId);
+                occupy(listId, list.remove(list.size() - 1), -1);
+                break;
+            }
+            case JOURNAL_LIST_REMOVE: {
+                int index = journal[--journalSize];
+                int listId = journal[--journalSize];
+                List<Object> list = (List<Object>) journaledList(listId);
+                list.add(index, journalObjects[journalObjectCount - 1]);
+                occupy(listId, journalObjects[journalObjectCount - 1], 1);
+                popJournalObjects(1);
+                break;
+            }
+            case JOURNAL_HASH: {
+                long hash = (long) journal[--journalSize] << 32;
+                zobrist = hash | (journal[--journalSize] & 0xFFFFFFFFL);
+                zobristValid = true;
+                break;
+            }
+            case JOURNAL_ENTITY_ID:
+                nextEntityId = journal[--journalSize];
+                break;
+            case JOURNAL_CANNONBALL_TURNS: {
+                Cannonball ball = (Cannonball) journalObjects[journalObjectCount - 1];
+                ball.remainingTurns = journal[--journalSize];
+                ball.view = null;
+                popJournalObjects(1);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Corrupted journal");
+            }
+        }
+    }
+
+    private List<?> journaledList(int listId) {
+        switch (listId) {
+        case LIST_CANNONBALLS:
+            return cannonballs;
+        case LIST_MINES:
+            return mines;
+        case LIST_BARRELS:
+            return barrels;
+        case LIST_SHIPS:
+            return ships;
+        case LIST_DAMAGE:
+            return damage;
+        case LIST_EXPLOSIONS:
+            return cannonBallExplosions;
+        default:
+            return players.get(listId - LIST_SHIPS_ALIVE).shipsAlive;
+        }
+    }
+
+    private void journalShips() {
+        for (Player player : players) {
+            for (Ship ship : player.ships) {
+                pushJournal(ship.orientation);
+                pushJournal(ship.speed);
+                pushJournal(ship.health);
+                pushJournal(ship.initialHealth);
+                pushJournal(ship.mineCooldown);
+                pushJournal(ship.cannonCooldown);
+                pushJournal(ship.newOrientation);
+                pushJournal((int) ship.zobristKey);
+                pushJournal((int) (ship.zobristKey >>> 32));
+                pushJournalObject(ship);
+                pushJournalObject(ship.position);
+                pushJournalObject(ship.action);
+                pushJournalObject(ship.message);
+                pushJournalObject(ship.target);
+                pushJournalObject(ship.newPosition);
+                pushJournalObject(ship.newBowCoordinate);
+                pushJournalObject(ship.newSternCoordinate);
+                pushJournal(JOURNAL_SHIP);
+            }
+        }
+    }
+
+    private void pushJournal(int value) {
+        if (journalSize == journal.length) {
+            journal = Arrays.copyOf(journal, 2 * journalSize);
+        }
+        journal[journalSize++] = value;
+    }
+
+    private void pushJournalObject(Object object) {
+        if (journalObjectCount == journalObjects.length) {
+            journalObjects = Arrays.copyOf(journalObjects, 2 * journalObjectCount);
+        }
+        journalObjects[journalObjectCount++] = object;
+    }
+
+    private void popJournalObjects(int count) {
+        for (int i = 0; i < count; i++) {
+            journalObjects[--journalObjectCount] = null;
+        }
+    }
+
+    private <T> void add(List<T> list, int listId, T element) {
+        list.add(element);
+        if (zobristValid) {
+            zobrist ^= zobristKey(listId, element);
+        }
+        occupy(listId, element, 1);
+        if (journaling) {
+            pushJournal(listId);
+            pushJournal(JOURNAL_LIST_ADD);
+        }
+    }
+
+    private <T> T removeAt(List<T> list, int listId, int index) {
+        T element = list.remove(index);
+        if (zobristValid) {
+            zobrist ^= zobristKey(listId, element);
+        }
+        occupy(listId, element, -1);
+        if (journaling) {
+            pushJournalObject(element);
+            pushJournal(listId);
+            pushJournal(index);
+            pushJournal(JOURNAL_LIST_REMOVE);
+        }
+        return element;
+    }
+
+    private <T> void remove(List<T> list, int listId, T element) {
+        removeAt(list, listId, list.indexOf(element));
+    }
+
+    private void clear(List<?> list, int listId) {
+        if (journaling) {
+            while (!list.isEmpty()) {
+                removeAt(list, listId, list.size() - 1);
+            }
+        } else {
+            list.clear();
+        }
+    }
+
+    private void occupy(int listId, Object element, int delta) {
+        if (!occupancyValid) {
+            return;
+        }
+        if (listId == LIST_BARRELS) {
+            RumBarrel barrel = (RumBarrel) element;
+            int cell = barrel.position.cell;
+            if (cell != -1) {
+                barrelsOnCell[cell] += delta;
+                barrelOnCell[cell] = firstOnCell(barrels, barrel, delta, barrelOnCell[cell], barrelsOnCell[cell]);
+            }
+        } else if (listId == LIST_MINES) {
+            Mine mine = (Mine) element;
+            int cell = mine.position.cell;
+            if (cell != -1) {
+                minesOnCell[cell] += delta;
+                mineOnCell[cell] = firstOnCell(mines, mine, delta, mineOnCell[cell], minesOnCell[cell]);
+            }
+        }
+    }
+
+    // First entity of list on the cell of element, which was just added to list (delta 1) or removed from it (delta -1).
+    // The list is only scanned when the cell holds more than one entity.
+    private static <T extends Entity> T firstOnCell(List<T> list, T element, int delta, T first, int count) {
+        if (count == 0) {
+            return null;
+        }
+        if (delta > 0 && count == 1) {
+            return element;
+        }
+        if (delta < 0 && element != first) {
+            return first;
+        }
+        int cell = element.position.cell;
+        for (T entity : list) {
+            if (entity.position.cell == cell) {
+                return entity;
+            }
+        }
+        return null;
+    }
+
+    private void rebuildOccupancy() {
+        if (barrelsOnCell == null) {
+            barrelsOnCell = new int[HexGrid.SIZE];
+            minesOnCell = new int[HexGrid.SIZE];
+            barrelOnCell = new RumBarrel[HexGrid.SIZE];
+            mineOnCell = new Mine[HexGrid.SIZE];
+        } else {
+            Arrays.fill(barrelsOnCell, 0);
+            Arrays.fill(minesOnCell, 0);
+            Arrays.fill(barrelOnCell, null);
+            Arrays.fill(mineOnCell, null);
+        }
+        occupancyValid = true;
+        for (RumBarrel barrel : barrels) {
+            occupy(LIST_BARRELS, barrel, 1);
+        }
+        for (Mine mine : mines) {
+            occupy(LIST_MINES, mine, 1);
+        }
+    }
+
+    // First barrel of the list on position, null when there is none
+    private RumBarrel barrelAt(Coord position) {
+        return position.cell != -1 ? barrelOnCell[position.cell] : null;
+    }
+
+    // First mine of the list on position, null when there is none
+    private Mine mineAt(Coord position) {
+        return position.cell != -1 ? mineOnCell[position.cell] : null;
+    }
+
+    // Stamps the center, bow and stern cells of every ship
+    private void markShips() {
+        if (shipCellStamp == null) {
+            shipCellStamp = new int[HexGrid.SIZE];
+            shipCellCount = new int[HexGrid.SIZE];
+            shipCellShip = new Ship[HexGrid.SIZE];
+            shipCellCenter = new boolean[HexGrid.SIZE];
+        }
+        shipStamp++;
+        for (int i = 0; i < ships.size(); i++) {
+            Ship ship = ships.get(i);
+            markShipCell(ship.position.cell, ship, true);
+            markShipCell(ship.bow().cell, ship, false);
+            markShipCell(ship.stern().cell, ship, false);
+        }
+    }
+
+    private void markShipCell(int cell, Ship ship, boolean center) {
+        if (cell == -1) {
+            return;
+        }
+        if (shipCellStamp[cell] != shipStamp) {
+            shipCellStamp[cell] = shipStamp;
+            shipCellCount[cell] = 0;
+            shipCellShip[cell] = ship;
+            shipCellCenter[cell] = center;
+        }
+        shipCellCount[cell]++;
+    }
+
+    // Ship parts on the cell at the last markShips
+    private int shipPartCount(Coord position) {
+        return position.cell != -1 && shipCellStamp[position.cell] == shipStamp ? shipCellCount[position.cell] : 0;
+    }
+
+    protected long zobristHash() {
+        if (!zobristValid) {
+            rehash();
+        }
+        return zobrist;
+    }
+
+    private void rehash() {
+        zobrist = 0;
+        for (Ship ship : ships) {
+            ship.zobristKey = shipKey(ship);
+            zobrist ^= ship.zobristKey;
+        }
+        for (RumBarrel barrel : barrels) {
+            zobrist ^= zobristKey(LIST_BARRELS, barrel);
+        }
+        for (Mine mine : mines) {
+            zobrist ^= zobristKey(LIST_MINES, mine);
+        }
+        for (Cannonball ball : cannonballs) {
+            zobrist ^= zobristKey(LIST_CANNONBALLS, ball);
+        }
+        zobristValid = true;
+    }
+
+    private void rehashShips() {
+        for (Ship ship : ships) {
+            long key = shipKey(ship);
+            zobrist ^= ship.zobristKey ^ key;
+            ship.zobristKey = key;
+        }
+    }
+
+    // Keys of the entities of the hashed lists, 0 for the other lists
+    private static long zobristKey(int listId, Object element) {
+        switch (listId) {
+        case LIST_SHIPS:
+            return ((Ship) element).zobristKey;
+        case LIST_BARRELS:
+            RumBarrel barrel = (RumBarrel) element;
+            return zobristKey(ZOBRIST_BARREL, barrel.position.cell | barrel.health << 10);
+        case LIST_MINES:
+            return zobristKey(ZOBRIST_MINE, ((Mine) element).position.cell);
+        case LIST_CANNONBALLS:
+            Cannonball ball = (Cannonball) element;
+            return zobristKey(ZOBRIST_CANNONBALL, ball.position.cell | ball.remainingTurns << 10);
+        default:
+            return 0;
+        }
+    }
+
+    private static long shipKey(Ship ship) {
+        return zobristKey(ZOBRIST_SHIP, ship.id | (long) ship.position.cell << 16 | (long) ship.orientation << 26 | (long) ship.speed << 29
+                | (long) ship.health << 32 | (long) ship.mineCooldown << 40 | (long) ship.cannonCooldown << 44);
+    }
+
+    // One random-looking key per feature value (SplitMix64 finalizer), instead of stored random tables
+    private static long zobristKey(long kind, long feature) {
+        long z = feature + kind * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+
+    protected int getExpectedOutputLineCountForPlayer(int playerIdx) {
+        return this.players.get(playerIdx).shipsAlive.size();
+    }
+
+
+    protected void handlePlayerOutput(int frame, int round, int playerIdx, String[] outputs)
+            throws WinException, LostException, InvalidInputException {
+        Player player = this.players.get(playerIdx);
+        if (outputParser == null) {
+            outputParser = new OutputParser();
+        }
+        OutputParser parser = outputParser;
+
+        try {
+            int i = 0;
+            for (String line : outputs) {
+                int command = parser.parse(line);
+                Ship ship = player.shipsAlive.get(i++);
+
+                if (command == -1) {
+                    throw new InvalidInputException("A valid action", line);
+                }
+                ship.setMessage(parser.message());
+                ship.view = null;
+                switch (Command.of(command)) {
+                case MOVE:
+                    ship.moveTo(parser.x, parser.y);
+                    break;
+                case FASTER:
+                    ship.faster();
+                    break;
+                case SLOWER:
+                    ship.slower();
+                    break;
+                case PORT:
+                    ship.port();
+                    break;
+                case STARBOARD:
+                    ship.starboard();
+                    break;
+                case MINE:
+                    ship.placeMine();
+                    break;
+                case FIRE:
+                    ship.fire(parser.x, parser.y);
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (InvalidInputException e) {
+            player.setDead();
+            throw e;
+        }
+    }
+
+    private void decrementRum() {
+        for (Ship ship : ships) {
+            ship.damage(1);
+        }
+    }
+
+    private void updateInitialRum() {
+        for (Ship ship : ships) {
+            ship.initialHealth = ship.health;
+        }
+    }
+
+    private void moveCannonballs() {
+        for (int i = 0; i < cannonballs.size(); i++) {
+            Cannonball ball = cannonballs.get(i);
+            if (ball.remainingTurns == 0) {
+                removeAt(cannonballs, LIST_CANNONBALLS, i--);
+                continue;
+            } else if (ball.remainingTurns > 0) {
+                if (journaling) {
+                    pushJournalObject(ball);
+                    pushJournal(ball.remainingTurns);
+                    pushJournal(JOURNAL_CANNONBALL_TURNS);
+                }
+                zobrist ^= zobristKey(LIST_CANNONBALLS, ball);
+                ball.remainingTurns--;
+                ball.view = null;
+                zobrist ^= zobristKey(LIST_CANNONBALLS, ball);
+            }
+
+            if (ball.remainingTurns == 0) {
+                add(cannonBallExplosions, LIST_EXPLOSIONS, ball.position);
+            }
+        }
+    }
+
+    private void applyActions() {
+        boolean shipsMarked = false;
+        for (Player player : players) {
             for (Ship ship : player.shipsAlive) {
                 if (ship.mineCooldown > 0) {
                     ship.mineCooldown--;
@@ -1108,14 +2298,19 @@ class Referee implements Serializable {
                             Coord target = ship.stern().neighbor((ship.orientation + 3) % 6);
 
                             if (target.isInsideMap()) {
-                                boolean cellIsFreeOfBarrels = barrels.stream().noneMatch(barrel -> barrel.position.equals(target));
-                                boolean cellIsFreeOfMines = mines.stream().noneMatch(mine -> mine.position.equals(target));
-                                boolean cellIsFreeOfShips = ships.stream().filter(b -> b != ship).noneMatch(b -> b.at(target));
+                                if (!shipsMarked) {
+                                    markShips();
+                                    shipsMarked = true;
+                                }
+                                boolean cellIsFreeOfBarrels = barrelAt(target) == null;
+                                boolean cellIsFreeOfMines = mineAt(target) == null;
+                                int shipParts = shipPartCount(target);
+                                boolean cellIsFreeOfShips = shipParts == 0 || shipParts == 1 && ship.at(target);
 
                                 if (cellIsFreeOfBarrels && cellIsFreeOfShips && cellIsFreeOfMines) {
                                     ship.mineCooldown = COOLDOWN_MINE;
-                                    Mine mine = new Mine(target.x, target.y);
-                                    mines.add(mine);
+                                    Mine mine = new Mine(newEntityId(), target.x, target.y);
+                                    add(mines, LIST_MINES, mine);
                                 }
                             }
 
@@ -1124,8 +2319,8 @@ class Referee implements Serializable {
                     case FIRE:
                         int distance = ship.bow().distanceTo(ship.target);
                         if (ship.target.isInsideMap() && distance <= FIRE_DISTANCE_MAX && ship.cannonCooldown == 0) {
-                            int travelTime = (int) (1 + Math.round(ship.bow().distanceTo(ship.target) / 3.0));
-                            cannonballs.add(new Cannonball(ship.target.x, ship.target.y, ship.id, ship.bow().x, ship.bow().y, travelTime));
+                            int travelTime = (int) (1 + Math.round(distance / 3.0));
+                            add(cannonballs, LIST_CANNONBALLS, new Cannonball(newEntityId(), ship.target.x, ship.target.y, ship.id, ship.bow().x, ship.bow().y, travelTime));
                             ship.cannonCooldown = COOLDOWN_CANNON;
                         }
                         break;
@@ -1143,24 +2338,44 @@ class Referee implements Serializable {
         Coord center = ship.position;
 
         // Collision with the barrels
-        for (Iterator<RumBarrel> it = barrels.iterator(); it.hasNext();) {
-            RumBarrel barrel = it.next();
-            if (barrel.position.equals(bow) || barrel.position.equals(stern) || barrel.position.equals(center)) {
-                ship.heal(barrel.health);
-                it.remove();
+        pickUpBarrels(ship, bow);
+        pickUpBarrels(ship, stern);
+        pickUpBarrels(ship, center);
+
+        // Collision with the mines: the mines under any ship explode, in the order of the list
+        for (Mine mine = firstTouchedMine(); mine != null; mine = firstTouchedMine()) {
+            for (Damage d : mine.explode(ships, false)) {
+                add(damage, LIST_DAMAGE, d);
             }
+            remove(mines, LIST_MINES, mine);
         }
-		
-        // Collision with the mines
-        for (Iterator<Mine> it = mines.iterator(); it.hasNext();) {
-            Mine mine = it.next();
-            List<Damage> mineDamage = mine.explode(ships, false);
+    }
 
-            if (!mineDamage.isEmpty()) {
-                damage.addAll(mineDamage);
-                it.remove();
+    private void pickUpBarrels(Ship ship, Coord position) {
+        for (RumBarrel barrel = barrelAt(position); barrel != null; barrel = barrelAt(position)) {
+            ship.heal(barrel.health);
+            remove(barrels, LIST_BARRELS, barrel);
+        }
+    }
+
+    // The first mine of the list under a part of a ship, null when no ship touches a mine
+    private Mine firstTouchedMine() {
+        Mine first = null;
+        int firstIndex = Integer.MAX_VALUE;
+        for (int i = 0; i < ships.size(); i++) {
+            Ship other = ships.get(i);
+            for (int part = 0; part < 3; part++) {
+                Mine mine = mineAt(part == 0 ? other.position : part == 1 ? other.bow() : other.stern());
+                if (mine != null && mine != first) {
+                    int index = mines.indexOf(mine);
+                    if (index < firstIndex) {
+                        first = mine;
+                        firstIndex = index;
+                    }
+                }
             }
         }
+        return first;
     }
 
     private void moveShips() {
@@ -1224,9 +2439,13 @@ class Referee implements Serializable {
             	}
             
             // Check collisions
+            long start = Profile.ENABLED ? System.nanoTime() : 0;
             for (Ship ship : this.ships) {
             	checkCollisions(ship);
             	}
+            if (Profile.ENABLED) {
+                Profile.time(Profile.CHECK_COLLISIONS, start);
+            }
         }
     }
 
@@ -1268,9 +2487,13 @@ class Referee implements Serializable {
         	ship.orientation = ship.newOrientation;
         }
 	    // Check collisions
+	    long start = Profile.ENABLED ? System.nanoTime() : 0;
 	    for (Ship ship : this.ships) {
 	    	checkCollisions(ship);
 	    }
+	    if (Profile.ENABLED) {
+	        Profile.time(Profile.CHECK_COLLISIONS, start);
+	    }
     }
 
     private boolean gameIsOver() {
@@ -1283,88 +2506,124 @@ class Referee implements Serializable {
     }
 
     void explodeShips() {
-        for (Iterator<Coord> it = cannonBallExplosions.iterator(); it.hasNext();) {
-            Coord position = it.next();
-            for (Ship ship : ships) {
-                if (position.equals(ship.bow()) || position.equals(ship.stern())) {
-                    damage.add(new Damage(position, LOW_DAMAGE, true));
-                    ship.damage(LOW_DAMAGE);
-                    it.remove();
-                    break;
-                } else if (position.equals(ship.position)) {
-                    damage.add(new Damage(position, HIGH_DAMAGE, true));
-                    ship.damage(HIGH_DAMAGE);
-                    it.remove();
-                    break;
-                }
+        markShips();
+        for (int e = 0; e < cannonBallExplosions.size(); e++) {
+            Coord position = cannonBallExplosions.get(e);
+            if (shipPartCount(position) == 0) {
+                continue;
             }
+            // The first ship of the list on the cell is hit
+            Ship ship = shipCellShip[position.cell];
+            if (!shipCellCenter[position.cell]) {
+                add(damage, LIST_DAMAGE, new Damage(position, LOW_DAMAGE, true));
+                ship.damage(LOW_DAMAGE);
+            } else {
+                add(damage, LIST_DAMAGE, new Damage(position, HIGH_DAMAGE, true));
+                ship.damage(HIGH_DAMAGE);
+            }
+            removeAt(cannonBallExplosions, LIST_EXPLOSIONS, e--);
         }
     }
 
     void explodeMines() {
-        for (Iterator<Coord> itBall = cannonBallExplosions.iterator(); itBall.hasNext();) {
-            Coord position = itBall.next();
-            for (Iterator<Mine> it = mines.iterator(); it.hasNext();) {
-                Mine mine = it.next();
-                if (mine.position.equals(position)) {
-                    damage.addAll(mine.explode(ships, true));
-                    it.remove();
-                    itBall.remove();
-                    break;
+        for (int e = 0; e < cannonBallExplosions.size(); e++) {
+            Coord position = cannonBallExplosions.get(e);
+            Mine mine = mineAt(position);
+            if (mine != null) {
+                for (Damage d : mine.explode(ships, true)) {
+                    add(damage, LIST_DAMAGE, d);
                 }
+                remove(mines, LIST_MINES, mine);
+                removeAt(cannonBallExplosions, LIST_EXPLOSIONS, e--);
             }
         }
     }
 
     void explodeBarrels() {
-        for (Iterator<Coord> itBall = cannonBallExplosions.iterator(); itBall.hasNext();) {
-            Coord position = itBall.next();
-            for (Iterator<RumBarrel> it = barrels.iterator(); it.hasNext();) {
-                RumBarrel barrel = it.next();
-                if (barrel.position.equals(position)) {
-                    damage.add(new Damage(position, 0, true));
-                    it.remove();
-                    itBall.remove();
-                    break;
-                }
+        for (int e = 0; e < cannonBallExplosions.size(); e++) {
+            Coord position = cannonBallExplosions.get(e);
+            RumBarrel barrel = barrelAt(position);
+            if (barrel != null) {
+                add(damage, LIST_DAMAGE, new Damage(position, 0, true));
+                remove(barrels, LIST_BARRELS, barrel);
+                removeAt(cannonBallExplosions, LIST_EXPLOSIONS, e--);
             }
         }
     }
 
     protected void updateGame(int round) throws GameOverException {
+        long start = Profile.ENABLED ? System.nanoTime() : 0;
+        if (!occupancyValid) {
+            rebuildOccupancy();
+        }
         moveCannonballs();
+        if (Profile.ENABLED) {
+            start = Profile.time(Profile.MOVE_CANNONBALLS, start);
+        }
         decrementRum();
         updateInitialRum();
+        if (Profile.ENABLED) {
+            start = Profile.time(Profile.DECREMENT_RUM, start);
+        }
 
         applyActions();
+        if (Profile.ENABLED) {
+            start = Profile.time(Profile.APPLY_ACTIONS, start);
+        }
         moveShips();
+        if (Profile.ENABLED) {
+            start = Profile.time(Profile.MOVE_SHIPS, start);
+        }
         rotateShips();
+        if (Profile.ENABLED) {
+            start = Profile.time(Profile.ROTATE_SHIPS, start);
+        }
 		
         explodeShips();
+        if (Profile.ENABLED) {
+            start = Profile.time(Profile.EXPLODE_SHIPS, start);
+        }
         explodeMines();
+        if (Profile.ENABLED) {
+            start = Profile.time(Profile.EXPLODE_MINES, start);
+        }
         explodeBarrels();
+        if (Profile.ENABLED) {
+            start = Profile.time(Profile.EXPLODE_BARRELS, start);
+        }
 
         // For each sunk ship, create a new rum barrel with the amount of rum the ship had at the begin of the turn (up to 30).
         for (Ship ship : ships) {
             if (ship.health <= 0) {
                 int reward = Math.min(REWARD_RUM_BARREL_VALUE, ship.initialHealth);
                 if (reward > 0) {
-                    barrels.add(new RumBarrel(ship.position.x, ship.position.y, reward));
+                    add(barrels, LIST_BARRELS, new RumBarrel(newEntityId(), ship.position.x, ship.position.y, reward));
                 }
             }
         }
 
         for (Coord position : cannonBallExplosions) {
-            damage.add(new Damage(position, 0, false));
+            add(damage, LIST_DAMAGE, new Damage(position, 0, false));
         }
 
-        for (Iterator<Ship> it = ships.iterator(); it.hasNext();) {
-            Ship ship = it.next();
+        rehashShips();
+
+        // Remove the sunk ships
+        for (int i = 0; i < ships.size(); i++) {
+            Ship ship = ships.get(i);
+            ship.view = null; // health changes every turn (decrementRum), the cached view string is stale
             if (ship.health <= 0) {
-                players.get(ship.owner).shipsAlive.remove(ship);
-                it.remove();
+                int alive = players.get(ship.owner).shipsAlive.indexOf(ship);
+                if (alive != -1) {
+                    removeAt(players.get(ship.owner).shipsAlive, LIST_SHIPS_ALIVE + ship.owner, alive);
+                }
+                removeAt(ships, LIST_SHIPS, i--);
             }
         }
+        if (Profile.ENABLED) {
+            Profile.time(Profile.SINK_SHIPS, start);
+            Profile.count(Profile.TURNS);
+        }
 
         if (gameIsOver()) {
             throw new GameOverException("endReached");
@@ -1399,15 +2658,14 @@ class Referee implements Serializable {
         }
 
         // Visible mines
+        Bitboard visible = new Bitboard();
+        for (Ship ship : players.get(playerIdx).shipsAlive) {
+            if (ship.position.cell != -1) {
+                visible.or(Bitboard.VISIBILITY, ship.position.cell);
+            }
+        }
         for (Mine mine : mines) {
-            boolean visible = false;
-            for (Ship ship : players.get(playerIdx).shipsAlive) {
-                if (ship.position.distanceTo(mine.position) <= MINE_VISIBILITY_RANGE) {
-                    visible = true;
-                    break;
-                }
-            }
-            if (visible) {
+            if (visible.get(mine.position)) {
                 data.add(mine.toPlayerString(playerIdx));
             }
         }
@@ -1437,32 +2695,79 @@ class Referee implements Serializable {
     }
 
 
+    // Key frames hold every entity. Other frames hold the changes since the previous frame: each player id followed by
+    // the number of its changed ships and their lines, then for cannonballs, mines and barrels the number of new or
+    // changed entities, their lines and a line with the number of removed entities and their ids, then the damage.
     protected String[] getFrameDataForView(int round, int frame, boolean keyFrame) {
+        if (viewLines == null) {
+            viewLines = new ArrayList<>();
+            nextViewLines = new ArrayList<>();
+            for (int i = 0; i <= LIST_SHIPS; i++) {
+                viewLines.add(new HashMap<>());
+                nextViewLines.add(new HashMap<>());
+            }
+        }
         List<String> data = new ArrayList<>();
 
         for (Player player : players) {
-            data.addAll(player.toViewString());
-        }
-        data.add(String.valueOf(cannonballs.size()));
-        for (Cannonball ball : cannonballs) {
-            data.add(ball.toViewString());
-        }
-        data.add(String.valueOf(mines.size()));
-        for (Mine mine : mines) {
-            data.add(mine.toViewString());
-        }
-        data.add(String.valueOf(barrels.size()));
-        for (RumBarrel barrel : barrels) {
-            data.add(barrel.toViewString());
+            data.add(String.valueOf(player.id));
+            int count = data.size();
+            if (!keyFrame) {
+                data.add(null);
+            }
+            for (Ship ship : player.ships) {
+                addViewLine(data, ship, LIST_SHIPS, keyFrame);
+            }
+            if (!keyFrame) {
+                data.set(count, String.valueOf(data.size() - count - 1));
+            }
         }
+        addViewLines(data, cannonballs, LIST_CANNONBALLS, keyFrame);
+        addViewLines(data, mines, LIST_MINES, keyFrame);
+        addViewLines(data, barrels, LIST_BARRELS, keyFrame);
         data.add(String.valueOf(damage.size()));
         for (Damage d : damage) {
             data.add(d.toViewString());
         }
 
+        List<Map<Integer, String>> emitted = viewLines;
+        viewLines = nextViewLines;
+        nextViewLines = emitted;
+        for (Map<Integer, String> lines : nextViewLines) {
+            lines.clear();
+        }
         return data.toArray(new String[data.size()]);
     }
 
+    private void addViewLines(List<String> data, List<? extends Entity> entities, int listId, boolean keyFrame) {
+        int count = data.size();
+        data.add(null);
+        for (int i = 0; i < entities.size(); i++) {
+            addViewLine(data, entities.get(i), listId, keyFrame);
+        }
+        data.set(count, String.valueOf(data.size() - count - 1));
+
+        if (!keyFrame) {
+            int removed = 0;
+            StringBuilder ids = new StringBuilder();
+            for (Integer id : viewLines.get(listId).keySet()) {
+                if (!nextViewLines.get(listId).containsKey(id)) {
+                    ids.append(' ').append(id);
+                    removed++;
+                }
+            }
+            data.add(removed + ids.toString());
+        }
+    }
+
+    private void addViewLine(List<String> data, Entity entity, int listId, boolean keyFrame) {
+        String line = entity.view();
+        nextViewLines.get(listId).put(entity.id, line);
+        if (keyFrame || !line.equals(viewLines.get(listId).get(entity.id))) {
+            data.add(line);
+        }
+    }
+
 
     protected String getGameName() {
         return "CodersOfTheCaribbean";
@@ -1504,6 +2809,7 @@ class Referee implements Serializable {
     }
 
     protected int eval(int idPlayer) {
+    	long start = Profile.ENABLED ? System.nanoTime() : 0;
     	int idOpponentPlayer = (idPlayer == 1) ? 0 : 1;
     	int barrels = 0; int teamUp = 0; int hunt = 0;
     	if (this.barrels.size() != 0)
@@ -1548,8 +2854,11 @@ class Referee implements Serializable {
     	}
     	int shotDone = 0;
     	
-    	System.err.println("barrels: " + barrels);
-        return hunt + shotDone + teamUp + barrels + players.get(idPlayer).getScore() - players.get(idOpponentPlayer).getScore();
+        int score = hunt + shotDone + teamUp + barrels + players.get(idPlayer).getScore() - players.get(idOpponentPlayer).getScore();
+        if (Profile.ENABLED) {
+            Profile.time(Profile.EVAL, start);
+        }
+        return score;
     }
 
     protected String[] getGameSummary(int round) {
@@ -1575,7 +2884,9 @@ class Referee implements Serializable {
     {
     	if (entityType.toUpperCase().equals("SHIP"))
     	{
+    		this.zobristValid = false;
     		Ship ship = new Ship(entityId, x, y, arg1, arg3, arg4);
+    		reserveEntityId(entityId);
             this.ships.add(ship);
             this.players.get(arg4).ships.add(ship);
             this.players.get(arg4).shipsAlive.add(ship);
@@ -1617,17 +2928,28 @@ class Referee implements Serializable {
 	
 	protected void checkShipRemoved(List<String> ships)
 	{
-		if (this.ships.size() != 0 && ships.size() != 0)
+		int[] shipIds = new int[ships.size()];
+		for (int i = 0; i < shipIds.length; i++)
+		{
+			shipIds[i] = Integer.parseInt(ships.get(i).split(";")[0]);
+		}
+		checkShipRemoved(shipIds, shipIds.length);
+	}
+
+	// Removes the simulated ships missing from the first shipCount ids of the turn input
+	protected void checkShipRemoved(int[] shipIds, int shipCount)
+	{
+		this.zobristValid = false;
+		if (this.ships.size() != 0 && shipCount != 0)
 		{
 			Iterator<Ship> iterator = this.ships.iterator(); 
 			while (iterator.hasNext())
 			{
 				Ship ship = iterator.next();
 				boolean foundElement = false;
-				for (String shipInput : ships)
+				for (int i = 0; i < shipCount; i++)
 				{
-					int entityId = Integer.parseInt(shipInput.split(";")[0]);
-					if (ship.getId() == entityId) 
+					if (ship.getId() == shipIds[i]) 
 					{
 						foundElement = true; 
 						break;
@@ -1643,7 +2965,24 @@ class Referee implements Serializable {
     
     protected void updateEntity(int entityId, String entityType, int x, int y, int arg1, int arg2, int arg3, int arg4) throws InvalidFormatException 
     {
-        if (entityType.toUpperCase().equals("SHIP"))
+        int type;
+        switch (entityType.toUpperCase())
+        {
+            case "SHIP": type = InputReader.SHIP; break;
+            case "BARREL": type = InputReader.BARREL; break;
+            case "CANNONBALL": type = InputReader.CANNONBALL; break;
+            case "MINE": type = InputReader.MINE; break;
+            default: type = -1; break;
+        }
+        updateEntity(entityId, type, x, y, arg1, arg2, arg3, arg4);
+    }
+
+    // Same as above with an InputReader entity type
+    protected void updateEntity(int entityId, int entityType, int x, int y, int arg1, int arg2, int arg3, int arg4) throws InvalidFormatException 
+    {
+        this.zobristValid = false;
+        this.occupancyValid = false;
+        if (entityType == InputReader.SHIP)
         {
         	boolean foundElement = false;
             for (Ship ship : this.players.get(arg4).shipsAlive)
@@ -1657,10 +2996,10 @@ class Referee implements Serializable {
             }
             if (foundElement == false)
             {
-            	this.constructShip(entityId, entityType, x, y, arg1, arg2, arg3, arg4);
+            	this.constructShip(entityId, "SHIP", x, y, arg1, arg2, arg3, arg4);
             }
         }
-        else if (entityType.toUpperCase().equals("BARREL"))
+        else if (entityType == InputReader.BARREL)
         {
             boolean foundElement = false;
             for (RumBarrel barrel : this.barrels)
@@ -1673,11 +3012,11 @@ class Referee implements Serializable {
             }
             if (foundElement == false)
             {
-				RumBarrel barrel = new RumBarrel(x, y, arg1);
+				RumBarrel barrel = new RumBarrel(newEntityId(), x, y, arg1);
                 this.barrels.add(barrel);
             }
         }
-        else if (entityType.toUpperCase().equals("CANNONBALL"))
+        else if (entityType == InputReader.CANNONBALL)
         {
 			boolean foundElement = false;
 			for (Cannonball cannonball : cannonballs)
@@ -1696,14 +3035,14 @@ class Referee implements Serializable {
 					{
 						int srcX = srcShip.position.x;
 						int srcY = srcShip.position.y;
-						Cannonball cannonball = new Cannonball(x, y, arg1, srcX, srcY, arg2);
+						Cannonball cannonball = new Cannonball(newEntityId(), x, y, arg1, srcX, srcY, arg2);
 						this.cannonballs.add(cannonball);
 						break;
 					}
 				}	
 			}
         }
-        else if (entityType.toUpperCase().equals("MINE"))
+        else if (entityType == InputReader.MINE)
         {
             boolean foundElement = false;
             for (Mine mine : this.mines)
@@ -1716,7 +3055,7 @@ class Referee implements Serializable {
             }
             if (foundElement == false)
             {
-				Mine m = new Mine(x, y);
+				Mine m = new Mine(newEntityId(), x, y);
                 this.mines.add(m);
             }
         } 
@@ -1730,501 +3069,3744 @@ class Referee implements Serializable {
 		this.updateGame(1);
     }
 
-	public static class Solution implements Serializable
-	{
-		int shipCount;
-		List<String> shipMoves1;
-		List<String> shipMoves2;
-		List<String> shipMoves3;
-		Referee referee;
-		Integer[] score;
-		int sumScore;
-		int depth;
-		int idPlayer;
-		int idOpponentPlayer;
-	    
-	    public Solution(Referee referee, int playerId)
-	    {
-	    	this.depth = 4;
-	    	this.shipMoves1 = new ArrayList<String>();
-	    	this.shipMoves2 = new ArrayList<String>();
-	    	this.shipMoves3 = new ArrayList<String>();
-	    	this.shipCount = referee.players.get(playerId).shipsAlive.size();
-	    	this.score = new Integer[depth];
-	    	this.sumScore = 0;
-            this.referee = referee;
-            this.idPlayer = 1;
-            this.idOpponentPlayer = (idPlayer == 1) ? 0 : 1;
-	    }
+    // Same as apply with the actions encoded by Command, without any parsing
+    protected void apply(int idPlayer, int[] encodedActions) throws GameOverException
+    {
+		this.prepare(1);
+		this.applyActions(idPlayer, encodedActions);
+		this.updateGame(1);
+    }
 
-        public List<Coord> computeFireTargets(Ship ship)
-        {
-        	List<Coord> fireTargets = new ArrayList<Coord>();
-        	for (Ship opponentShip : referee.players.get(idOpponentPlayer).shipsAlive)
-        	{
-        		int distance = ship.bow().distanceTo(opponentShip.position);
-                int travelTime = (int) (1 + Math.round(distance / 3.0));
-        		if (travelTime <= 1)
-        		{
-                    fireTargets.add(new Coord(opponentShip.position.x , opponentShip.position.y));
-                    return fireTargets;
-        		}
-        		else if (distance < FIRE_DISTANCE_MAX / 2)
-        		{
-        			int newX; int newY;
-                    if (opponentShip.position.y % 2 == 1) {
-                        newY = opponentShip.position.y + opponentShip.position.DIRECTIONS_ODD[opponentShip.orientation][1] * opponentShip.speed * travelTime;
-                        newX = opponentShip.position.x + opponentShip.position.DIRECTIONS_ODD[opponentShip.orientation][0] * opponentShip.speed * travelTime;
-                    } else {
-                        newY = opponentShip.position.y + opponentShip.position.DIRECTIONS_EVEN[opponentShip.orientation][1] * opponentShip.speed * travelTime;
-                        newX = opponentShip.position.x + opponentShip.position.DIRECTIONS_EVEN[opponentShip.orientation][0] * opponentShip.speed * travelTime;
-                    }
-                    
-                    fireTargets.add(new Coord(newX, newY));
-        		}
-        	}
-        	if (fireTargets.size() == 0 && referee.mines.size() != 0)
-        	{
-        		Mine closestMine = ship.closestMine(this.referee.mines);
-        		int distance = ship.bow().distanceTo(closestMine.position);
-        		if (1 < distance && distance <= FIRE_DISTANCE_MAX)
-        		{
-                    fireTargets.add(new Coord(closestMine.position.x, closestMine.position.y));
-        		}
-        	}
-        	return fireTargets;
+    // Counterpart of handlePlayerOutput for Command encoded actions, one per alive ship of the player
+    protected void applyActions(int playerIdx, int[] encodedActions) {
+        List<Ship> shipsAlive = this.players.get(playerIdx).shipsAlive;
+        for (int i = 0; i < shipsAlive.size(); i++) {
+            Ship ship = shipsAlive.get(i);
+            int action = encodedActions[i];
+            ship.setMessage(null);
+            switch (Command.of(action)) {
+            case MOVE:
+                ship.moveTo(Command.x(action), Command.y(action));
+                break;
+            case FASTER:
+                ship.faster();
+                break;
+            case SLOWER:
+                ship.slower();
+                break;
+            case PORT:
+                ship.port();
+                break;
+            case STARBOARD:
+                ship.starboard();
+                break;
+            case MINE:
+                ship.placeMine();
+                break;
+            case FIRE:
+                ship.fire(Command.x(action), Command.y(action));
+                break;
+            default:
+                break;
+            }
         }
-        
+    }
 
-	    protected String[] makeDecision(Referee referee)
-	    {
-        	int iShip = 0;
-        	String[] move = new String[referee.players.get(idPlayer).shipsAlive.size()];
-	    	for (Ship ship : referee.players.get(idPlayer).shipsAlive)
-            {
-    			String currentMove = "WAIT";
-    			if (referee.barrels.size() != 0)
-            	{
-                    RumBarrel rum = ship.closestBarrel(referee.barrels);
-                    currentMove = "MOVE " + rum.position.x + " " + rum.position.y;
-            	}
-    			if (ship.cannonCooldown == 0)
-            	{
-    				List<Coord> fireTargets = this.computeFireTargets(ship);
-    				if (fireTargets.size() != 0) currentMove = "FIRE " + fireTargets.get(0).x + " " + fireTargets.get(0).y;
-            	}
-                move[iShip] = currentMove;
-                iShip++;
+    // The rules of updateGame on flat int arrays instead of entity lists: loadFrom copies a referee once,
+    // then turns can be simulated without creating any object
+    public static class ArrayReferee {
+        public static final int WAIT = 0;
+        public static final int FASTER = 1;
+        public static final int SLOWER = 2;
+        public static final int PORT = 3;
+        public static final int STARBOARD = 4;
+        public static final int FIRE = 5;
+        public static final int MINE = 6;
+
+        private static final int[] CELL_X = HexGrid.X;
+        private static final int[] CELL_Y = HexGrid.Y;
+        private static final boolean[] INSIDE_MAP = HexGrid.INSIDE_MAP;
+        private static final int[] NEIGHBOR = HexGrid.NEIGHBOR;
+
+        static int cell(int x, int y) {
+            return HexGrid.cell(x, y);
+        }
+
+        static int distance(int x1, int y1, int x2, int y2) {
+            return HexGrid.distance(x1, y1, x2, y2);
+        }
+
+        static int distance(int cell1, int cell2) {
+            return HexGrid.DISTANCE[cell1 * HexGrid.SIZE + cell2];
+        }
+
+        int shipCount;
+        final int[] shipId = new int[2 * MAX_SHIPS];
+        final int[] shipOwner = new int[2 * MAX_SHIPS];
+        final int[] shipCell = new int[2 * MAX_SHIPS];
+        final int[] shipOrientation = new int[2 * MAX_SHIPS];
+        final int[] shipSpeed = new int[2 * MAX_SHIPS];
+        final int[] shipHealth = new int[2 * MAX_SHIPS];
+        final int[] shipInitialHealth = new int[2 * MAX_SHIPS];
+        final int[] shipMineCooldown = new int[2 * MAX_SHIPS];
+        final int[] shipCannonCooldown = new int[2 * MAX_SHIPS];
+        final int[] shipAction = new int[2 * MAX_SHIPS];
+        final int[] shipTargetX = new int[2 * MAX_SHIPS];
+        final int[] shipTargetY = new int[2 * MAX_SHIPS];
+        private final int[] newOrientation = new int[2 * MAX_SHIPS];
+        private final int[] newCell = new int[2 * MAX_SHIPS];
+        private final int[] newBow = new int[2 * MAX_SHIPS];
+        private final int[] newStern = new int[2 * MAX_SHIPS];
+        private final boolean[] collision = new boolean[2 * MAX_SHIPS];
+        // shipCellMark[cell] == mark when a ship covers the cell since the last markShipCells
+        private final int[] shipCellMark = new int[HexGrid.SIZE];
+        private int mark;
+
+        int barrelCount;
+        int[] barrelId = new int[64];
+        int[] barrelCell = new int[64];
+        int[] barrelHealth = new int[64];
+
+        int mineCount;
+        int[] mineId = new int[64];
+        int[] mineCell = new int[64];
+
+        int cannonballCount;
+        int[] cannonballId = new int[32];
+        int[] cannonballCell = new int[32];
+        int[] cannonballOwner = new int[32];
+        int[] cannonballSrcX = new int[32];
+        int[] cannonballSrcY = new int[32];
+        int[] cannonballInitialTurns = new int[32];
+        int[] cannonballRemainingTurns = new int[32];
+
+        int explosionCount;
+        int[] explosionCell = new int[32];
+
+        int damageCount;
+        int[] damageCell = new int[64];
+        int[] damageHealth = new int[64];
+        boolean[] damageHit = new boolean[64];
+
+        int nextEntityId;
+
+        public void loadFrom(Referee referee) {
+            nextEntityId = referee.nextEntityId;
+
+            shipCount = 0;
+            for (Ship ship : referee.ships) {
+                int i = shipCount++;
+                shipId[i] = ship.id;
+                shipOwner[i] = ship.owner;
+                shipCell[i] = cell(ship.position.x, ship.position.y);
+                shipOrientation[i] = ship.orientation;
+                shipSpeed[i] = ship.speed;
+                shipHealth[i] = ship.health;
+                shipInitialHealth[i] = ship.initialHealth;
+                shipMineCooldown[i] = ship.mineCooldown;
+                shipCannonCooldown[i] = ship.cannonCooldown;
+                shipAction[i] = WAIT;
+                if (ship.action != null) {
+                    switch (ship.action) {
+                    case FASTER:
+                        shipAction[i] = FASTER;
+                        break;
+                    case SLOWER:
+                        shipAction[i] = SLOWER;
+                        break;
+                    case PORT:
+                        shipAction[i] = PORT;
+                        break;
+                    case STARBOARD:
+                        shipAction[i] = STARBOARD;
+                        break;
+                    case FIRE:
+                        shipAction[i] = FIRE;
+                        shipTargetX[i] = ship.target.x;
+                        shipTargetY[i] = ship.target.y;
+                        break;
+                    case MINE:
+                        shipAction[i] = MINE;
+                        break;
+                    }
+                }
+                nextEntityId = Math.max(nextEntityId, ship.id + 1);
             }
-            return move;
-	    }
-	    
-	    protected void heuristicSimulation(int depth, Referee referee)
-	    {
-	    	int idPlayer = 1;
-	    	for (int iDepth = 0; iDepth < depth; iDepth++)
-	    	{
-	    		try
-	    		{
-		    		String[] outputTurn = this.makeDecision(referee);
-	                referee.apply(idPlayer, outputTurn);
 
-		            this.score[iDepth] = referee.eval(idPlayer);
-		            this.sumScore += this.score[iDepth];
-		            
-	                int iShip = 0;
-	                if (1 <= shipCount)
-	                {
-	                	shipMoves1.add(outputTurn[iShip]);
-	                	iShip++;
-	                }
-	                if (2 <= shipCount)
-	                {
-	                	shipMoves2.add(outputTurn[iShip]);
-	                	iShip++;
-	                }
-	                if (3 <= shipCount)
-	                {
-	                	shipMoves3.add(outputTurn[iShip]);
-	                	iShip++;
-	                }
-	    		}
-	    		catch (Exception e)
-	    		{
-	    			System.err.println(e);
-	    		}
-	    	}
-	    }
-	    
-	    public void mutate()
-	    {
-    	    for (int i = 0; i < depth; i++)
-    	    {
-    	    	int amplitude = 1 / (i + 1);
-    	    	
-                if (referee.random.nextInt() < amplitude && 1 <= this.referee.players.get(idPlayer).shipsAlive.size())
-                {
-                	shipMoves1.set(i, randomAction(this.referee.players.get(idPlayer).shipsAlive.get(0)));
+            barrelCount = 0;
+            for (RumBarrel barrel : referee.barrels) {
+                addBarrel(barrel.id, cell(barrel.position.x, barrel.position.y), barrel.health);
+            }
+
+            mineCount = 0;
+            for (Mine mine : referee.mines) {
+                addMine(mine.id, cell(mine.position.x, mine.position.y));
+            }
+
+            cannonballCount = 0;
+            for (Cannonball ball : referee.cannonballs) {
+                addCannonball(ball.id, cell(ball.position.x, ball.position.y), ball.ownerEntityId, ball.srcX, ball.srcY, ball.initialRemainingTurns);
+                cannonballRemainingTurns[cannonballCount - 1] = ball.remainingTurns;
+            }
+
+            explosionCount = 0;
+            damageCount = 0;
+        }
+
+        public int getScore(int playerIdx) {
+            int score = 0;
+            for (int i = 0; i < shipCount; i++) {
+                if (shipOwner[i] == playerIdx) {
+                    score += shipHealth[i];
                 }
-                if (referee.random.nextInt() < amplitude && 2 <= this.referee.players.get(idPlayer).shipsAlive.size())
-                {
-                	shipMoves2.set(i, randomAction(this.referee.players.get(idPlayer).shipsAlive.get(1)));
+            }
+            return score;
+        }
+
+        public int shipsAlive(int playerIdx) {
+            int alive = 0;
+            for (int i = 0; i < shipCount; i++) {
+                if (shipOwner[i] == playerIdx) {
+                    alive++;
                 }
-                if (referee.random.nextInt() < amplitude && 3 <= this.referee.players.get(idPlayer).shipsAlive.size())
-                {
-                	shipMoves3.set(i, randomAction(this.referee.players.get(idPlayer).shipsAlive.get(2)));
+            }
+            return alive;
+        }
+
+        // Same score as Referee.eval, term by term and with the same ties
+        public int eval(int idPlayer) {
+            int idOpponentPlayer = (idPlayer == 1) ? 0 : 1;
+            int barrels = 0;
+            int teamUp = 0;
+            int hunt = 0;
+            if (barrelCount != 0) {
+                for (int i = 0; i < shipCount; i++) {
+                    if (shipOwner[i] != idPlayer) {
+                        continue;
+                    }
+                    int rum = 0;
+                    int minDistance = Integer.MAX_VALUE;
+                    for (int b = 0; b < barrelCount; b++) {
+                        int distance = distance(shipCell[i], barrelCell[b]) * barrelHealth[b];
+                        if (distance < minDistance) {
+                            minDistance = distance;
+                            rum = b;
+                        }
+                    }
+                    int distance = distance(bow(i), barrelCell[rum]);
+                    barrels += 12 / distance;
+                    if (distance == 1) {
+                        barrels = 0;
+                    }
                 }
-    	    }
-	    }
-	    public void randomize()
-	    {
-    	    for (int i = 0; i < this.depth; i++)
-    	    {
-                if (1 <=  this.referee.players.get(idPlayer).shipsAlive.size())
-                {
-                	shipMoves1.add(i, randomAction(this.referee.players.get(idPlayer).shipsAlive.get(0)));
+            }
+            if (1 < shipsAlive(idPlayer)) {
+                for (int i = 0; i < shipCount; i++) {
+                    for (int j = 0; j < shipCount; j++) {
+                        if (i == j || shipOwner[i] != idPlayer || shipOwner[j] != idPlayer) {
+                            continue;
+                        }
+                        int distance = distance(shipCell[i], shipCell[j]);
+                        if (distance <= 1) {
+                            teamUp -= 1 / distance;
+                        } else if (distance <= 3) {
+                            teamUp += 3 / distance;
+                        }
+                    }
                 }
-                if (2 <=  this.referee.players.get(idPlayer).shipsAlive.size())
-                {
-                	shipMoves2.add(i, randomAction(this.referee.players.get(idPlayer).shipsAlive.get(1)));
+            }
+            if (1 < shipsAlive(idOpponentPlayer) && barrelCount == 0) {
+                int mainTarget = -1;
+                int maxRum = 0;
+                for (int i = 0; i < shipCount; i++) {
+                    if (shipOwner[i] == idOpponentPlayer && maxRum < shipHealth[i]) {
+                        mainTarget = i;
+                        maxRum = shipHealth[i];
+                    }
                 }
-                if (3 <=  this.referee.players.get(idPlayer).shipsAlive.size())
-                {
-                	shipMoves3.add(i, randomAction(this.referee.players.get(idPlayer).shipsAlive.get(2)));
+                for (int i = 0; i < shipCount; i++) {
+                    if (shipOwner[i] != idPlayer) {
+                        continue;
+                    }
+                    int distance = distance(bow(i), shipCell[mainTarget]);
+                    if (distance < 4 && shipSpeed[i] != 0) {
+                        hunt += 2 / distance;
+                    }
                 }
-    	    }
-	    }
+            }
+            return hunt + teamUp + barrels + getScore(idPlayer) - getScore(idOpponentPlayer);
+        }
 
-	    public String randomAction(Ship ship)
-	    {
-	    	int countCommand;
-	    	if (LEAGUE_LEVEL == 0) countCommand = 0;
-	    	else if (LEAGUE_LEVEL == 1 || LEAGUE_LEVEL == 2) countCommand = 2;
-	    	else countCommand = 6;
-	    	
-	    	String move = "";
-	    	while (move == "")
-	    	{
-		    	int command = referee.random.nextInt(countCommand);
-		    	switch(command)
-		        {
-			        case 0: move = "WAIT"; break;
-			        case 1: {
-			        	if (ship.cannonCooldown == 0)
-			        	{
-				        	List<Coord> fireTargets = new ArrayList<Coord>();
-				        	fireTargets = this.computeFireTargets(ship);
-				        	if (fireTargets.size() != 0)
-				        	{
-				        		int idFireTarget = referee.random.nextInt(fireTargets.size());
-				        		move = "FIRE " + fireTargets.get(idFireTarget).x + " " + fireTargets.get(idFireTarget).y;
-				        	}
-			        	}
+        // Same as Referee.prepare
+        public void prepare() {
+            for (int i = 0; i < shipCount; i++) {
+                shipAction[i] = WAIT;
+            }
+            explosionCount = 0;
+            damageCount = 0;
+        }
 
-			        }
-			        break;
-			    	case 2: move = "SLOWER"; break;
-			        case 3: move = "FASTER"; break;
-			        case 4: move = "PORT"; break;
-			        case 5: move = "STARBOARD"; break;
-		        }	
-	    	}
-	    	return move;
-	    }
-	    
-	    public void eval(int idPlayer)
+        public void setAction(int ship, int action) {
+            if (action == MINE && !MINES_ENABLED) {
+                return;
+            }
+            shipAction[ship] = action;
+        }
+
+        public void fire(int ship, int x, int y) {
+            if (CANNONS_ENABLED) {
+                shipAction[ship] = FIRE;
+                shipTargetX[ship] = x;
+                shipTargetY[ship] = y;
+            }
+        }
+
+        // Same decision as Ship.moveTo
+        public void moveTo(int ship, int x, int y) {
+            int move = Navigation.move(Coord.CELLS[shipCell[ship]], shipOrientation[ship], shipSpeed[ship], x, y);
+            if (move != Navigation.NONE) {
+                shipAction[ship] = move;
+            }
+        }
+
+        // Same as Referee.applyActions: the k-th ship of playerIdx takes encodedActions[k]
+        public void applyActions(int playerIdx, int[] encodedActions) {
+            int k = 0;
+            for (int i = 0; i < shipCount; i++) {
+                if (shipOwner[i] != playerIdx) {
+                    continue;
+                }
+                int action = encodedActions[k++];
+                switch (Command.of(action)) {
+                case MOVE:
+                    moveTo(i, Command.x(action), Command.y(action));
+                    break;
+                case FASTER:
+                    setAction(i, FASTER);
+                    break;
+                case SLOWER:
+                    setAction(i, SLOWER);
+                    break;
+                case PORT:
+                    setAction(i, PORT);
+                    break;
+                case STARBOARD:
+                    setAction(i, STARBOARD);
+                    break;
+                case MINE:
+                    setAction(i, MINE);
+                    break;
+                case FIRE:
+                    fire(i, Command.x(action), Command.y(action));
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+
+        // Same phases as Referee.updateGame, returns true when the game is over
+        public boolean updateGame() {
+            moveCannonballs();
+            for (int i = 0; i < shipCount; i++) {
+                shipHealth[i] = Math.max(0, shipHealth[i] - 1);
+                shipInitialHealth[i] = shipHealth[i];
+            }
+
+            applyActions();
+            moveShips();
+            rotateShips();
+
+            explodeShips();
+            explodeMines();
+            explodeBarrels();
+
+            // For each sunk ship, create a new rum barrel with the amount of rum the ship had at the begin of the turn (up to 30).
+            for (int i = 0; i < shipCount; i++) {
+                if (shipHealth[i] <= 0) {
+                    int reward = Math.min(REWARD_RUM_BARREL_VALUE, shipInitialHealth[i]);
+                    if (reward > 0) {
+                        addBarrel(nextEntityId++, shipCell[i], reward);
+                    }
+                }
+            }
+
+            for (int i = 0; i < explosionCount; i++) {
+                addDamage(explosionCell[i], 0, false);
+            }
+
+            int alive = 0;
+            for (int i = 0; i < shipCount; i++) {
+                if (shipHealth[i] > 0) {
+                    moveShip(i, alive++);
+                }
+            }
+            shipCount = alive;
+
+            return gameIsOver();
+        }
+
+        private boolean gameIsOver() {
+            boolean alive0 = false;
+            boolean alive1 = false;
+            for (int i = 0; i < shipCount; i++) {
+                if (shipOwner[i] == 0) {
+                    alive0 = true;
+                } else {
+                    alive1 = true;
+                }
+            }
+            return !alive0 || !alive1 || barrelCount == 0 && LEAGUE_LEVEL == 0;
+        }
+
+        private void moveCannonballs() {
+            for (int i = 0; i < cannonballCount; i++) {
+                if (cannonballRemainingTurns[i] == 0) {
+                    removeCannonball(i--);
+                    continue;
+                } else if (cannonballRemainingTurns[i] > 0) {
+                    cannonballRemainingTurns[i]--;
+                }
+
+                if (cannonballRemainingTurns[i] == 0) {
+                    if (explosionCount == explosionCell.length) {
+                        explosionCell = Arrays.copyOf(explosionCell, 2 * explosionCount);
+                    }
+                    explosionCell[explosionCount++] = cannonballCell[i];
+                }
+            }
+        }
+
+        private void applyActions() {
+            for (int player = 0; player < 2; player++) {
+                for (int i = 0; i < shipCount; i++) {
+                    if (shipOwner[i] != player) {
+                        continue;
+                    }
+                    if (shipMineCooldown[i] > 0) {
+                        shipMineCooldown[i]--;
+                    }
+                    if (shipCannonCooldown[i] > 0) {
+                        shipCannonCooldown[i]--;
+                    }
+
+                    newOrientation[i] = shipOrientation[i];
+
+                    switch (shipAction[i]) {
+                    case FASTER:
+                        if (shipSpeed[i] < MAX_SHIP_SPEED) {
+                            shipSpeed[i]++;
+                        }
+                        break;
+                    case SLOWER:
+                        if (shipSpeed[i] > 0) {
+                            shipSpeed[i]--;
+                        }
+                        break;
+                    case PORT:
+                        newOrientation[i] = (shipOrientation[i] + 1) % 6;
+                        break;
+                    case STARBOARD:
+                        newOrientation[i] = (shipOrientation[i] + 5) % 6;
+                        break;
+                    case MINE:
+                        if (shipMineCooldown[i] == 0) {
+                            int back = (shipOrientation[i] + 3) % 6;
+                            int target = NEIGHBOR[NEIGHBOR[shipCell[i] * 6 + back] * 6 + back];
+
+                            if (INSIDE_MAP[target] && barrelAt(target) == -1 && mineAt(target) == -1 && shipAt(target, i) == -1) {
+                                shipMineCooldown[i] = COOLDOWN_MINE;
+                                addMine(nextEntityId++, target);
+                            }
+                        }
+                        break;
+                    case FIRE:
+                        int target = cell(shipTargetX[i], shipTargetY[i]);
+                        if (target != -1 && INSIDE_MAP[target] && shipCannonCooldown[i] == 0) {
+                            int bow = bow(i);
+                            int distance = distance(bow, target);
+                            if (distance <= FIRE_DISTANCE_MAX) {
+                                int travelTime = (int) (1 + Math.round(distance / 3.0));
+                                addCannonball(nextEntityId++, target, shipId[i], CELL_X[bow], CELL_Y[bow], travelTime);
+                                shipCannonCooldown[i] = COOLDOWN_CANNON;
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void checkCollisions(int ship) {
+            int bow = bow(ship);
+            int stern = stern(ship);
+            int center = shipCell[ship];
+
+            // Collision with the barrels
+            for (int i = 0; i < barrelCount; i++) {
+                int cell = barrelCell[i];
+                if (cell == bow || cell == stern || cell == center) {
+                    shipHealth[ship] = Math.min(MAX_SHIP_HEALTH, shipHealth[ship] + barrelHealth[i]);
+                    removeBarrel(i--);
+                }
+            }
+
+            // Collision with the mines (a mine on a cell no ship covers cannot explode)
+            for (int i = 0; i < mineCount; i++) {
+                if (shipCellMark[mineCell[i]] == mark && explodeMine(mineCell[i], false)) {
+                    removeMine(i--);
+                }
+            }
+        }
+
+        private void markShipCells() {
+            if (++mark == Integer.MAX_VALUE) {
+                Arrays.fill(shipCellMark, 0);
+                mark = 1;
+            }
+            for (int i = 0; i < shipCount; i++) {
+                shipCellMark[shipCell[i]] = mark;
+                shipCellMark[bow(i)] = mark;
+                shipCellMark[stern(i)] = mark;
+            }
+        }
+
+        // Same as Mine.explode, returns false when nothing exploded
+        private boolean explodeMine(int cell, boolean force) {
+            int victim = -1;
+
+            for (int i = 0; i < shipCount; i++) {
+                if (cell == bow(i) || cell == stern(i) || cell == shipCell[i]) {
+                    addDamage(cell, MINE_DAMAGE, true);
+                    damageShip(i, MINE_DAMAGE);
+                    victim = i;
+                }
+            }
+
+            if (force || victim != -1) {
+                if (victim == -1) {
+                    addDamage(cell, MINE_DAMAGE, true);
+                }
+
+                for (int i = 0; i < shipCount; i++) {
+                    if (i != victim) {
+                        int impact = -1;
+                        if (distance(stern(i), cell) <= 1) {
+                            impact = stern(i);
+                        }
+                        if (distance(bow(i), cell) <= 1) {
+                            impact = bow(i);
+                        }
+                        if (distance(shipCell[i], cell) <= 1) {
+                            impact = shipCell[i];
+                        }
+
+                        if (impact != -1) {
+                            damageShip(i, NEAR_MINE_DAMAGE);
+                            addDamage(impact, NEAR_MINE_DAMAGE, true);
+                        }
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private void moveShips() {
+            // ---
+            // Go forward
+            // ---
+            for (int step = 1; step <= MAX_SHIP_SPEED; step++) {
+                for (int i = 0; i < shipCount; i++) {
+                    newCell[i] = shipCell[i];
+                    newBow[i] = bow(i);
+                    newStern[i] = stern(i);
+
+                    if (step > shipSpeed[i]) {
+                        continue;
+                    }
+
+                    int cell = NEIGHBOR[shipCell[i] * 6 + shipOrientation[i]];
+
+                    if (INSIDE_MAP[cell]) {
+                        // Set new coordinate.
+                        newCell[i] = cell;
+                        newBow[i] = NEIGHBOR[cell * 6 + shipOrientation[i]];
+                        newStern[i] = NEIGHBOR[cell * 6 + (shipOrientation[i] + 3) % 6];
+                    } else {
+                        // Stop ship!
+                        shipSpeed[i] = 0;
+                    }
+                }
+
+                // Check ship and obstacles collisions
+                boolean collisionDetected = true;
+                while (collisionDetected) {
+                    collisionDetected = false;
+
+                    for (int i = 0; i < shipCount; i++) {
+                        collision[i] = newBowIntersect(i);
+                    }
+
+                    for (int i = 0; i < shipCount; i++) {
+                        if (collision[i]) {
+                            // Revert last move
+                            newCell[i] = shipCell[i];
+                            newBow[i] = bow(i);
+                            newStern[i] = stern(i);
+
+                            // Stop ships
+                            shipSpeed[i] = 0;
+
+                            collisionDetected = true;
+                        }
+                    }
+                }
+
+                // Move ships to their new location
+                for (int i = 0; i < shipCount; i++) {
+                    shipCell[i] = newCell[i];
+                }
+                markShipCells();
+
+                // Check collisions
+                for (int i = 0; i < shipCount; i++) {
+                    checkCollisions(i);
+                }
+            }
+        }
+
+        private void rotateShips() {
+            // Rotate
+            for (int i = 0; i < shipCount; i++) {
+                newCell[i] = shipCell[i];
+                newBow[i] = NEIGHBOR[shipCell[i] * 6 + newOrientation[i]];
+                newStern[i] = NEIGHBOR[shipCell[i] * 6 + (newOrientation[i] + 3) % 6];
+            }
+
+            // Check collisions
+            boolean collisionDetected = true;
+            while (collisionDetected) {
+                collisionDetected = false;
+
+                for (int i = 0; i < shipCount; i++) {
+                    collision[i] = newPositionsIntersect(i);
+                }
+
+                for (int i = 0; i < shipCount; i++) {
+                    if (collision[i]) {
+                        newOrientation[i] = shipOrientation[i];
+                        newBow[i] = NEIGHBOR[shipCell[i] * 6 + newOrientation[i]];
+                        newStern[i] = NEIGHBOR[shipCell[i] * 6 + (newOrientation[i] + 3) % 6];
+                        shipSpeed[i] = 0;
+                        collisionDetected = true;
+                    }
+                }
+            }
+
+            // Apply rotation
+            for (int i = 0; i < shipCount; i++) {
+                shipOrientation[i] = newOrientation[i];
+            }
+            markShipCells();
+            // Check collisions
+            for (int i = 0; i < shipCount; i++) {
+                checkCollisions(i);
+            }
+        }
+
+        private boolean newBowIntersect(int ship) {
+            for (int i = 0; i < shipCount; i++) {
+                if (i != ship && (newBow[ship] == newBow[i] || newBow[ship] == newCell[i] || newBow[ship] == newStern[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean newPositionsIntersect(int ship) {
+            for (int i = 0; i < shipCount; i++) {
+                if (i != ship && (newBow[ship] == newBow[i] || newBow[ship] == newCell[i] || newBow[ship] == newStern[i]
+                        || newStern[ship] == newBow[i] || newStern[ship] == newCell[i] || newStern[ship] == newStern[i]
+                        || newCell[ship] == newBow[i] || newCell[ship] == newCell[i] || newCell[ship] == newStern[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void explodeShips() {
+            for (int e = 0; e < explosionCount; e++) {
+                int cell = explosionCell[e];
+                for (int i = 0; i < shipCount; i++) {
+                    if (cell == bow(i) || cell == stern(i)) {
+                        addDamage(cell, LOW_DAMAGE, true);
+                        damageShip(i, LOW_DAMAGE);
+                        removeExplosion(e--);
+                        break;
+                    } else if (cell == shipCell[i]) {
+                        addDamage(cell, HIGH_DAMAGE, true);
+                        damageShip(i, HIGH_DAMAGE);
+                        removeExplosion(e--);
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void explodeMines() {
+            for (int e = 0; e < explosionCount; e++) {
+                int mine = mineAt(explosionCell[e]);
+                if (mine != -1) {
+                    explodeMine(mineCell[mine], true);
+                    removeMine(mine);
+                    removeExplosion(e--);
+                }
+            }
+        }
+
+        private void explodeBarrels() {
+            for (int e = 0; e < explosionCount; e++) {
+                int barrel = barrelAt(explosionCell[e]);
+                if (barrel != -1) {
+                    addDamage(explosionCell[e], 0, true);
+                    removeBarrel(barrel);
+                    removeExplosion(e--);
+                }
+            }
+        }
+
+        int bow(int ship) {
+            return NEIGHBOR[shipCell[ship] * 6 + shipOrientation[ship]];
+        }
+
+        int stern(int ship) {
+            return NEIGHBOR[shipCell[ship] * 6 + (shipOrientation[ship] + 3) % 6];
+        }
+
+        private void damageShip(int ship, int health) {
+            shipHealth[ship] = Math.max(0, shipHealth[ship] - health);
+        }
+
+        int barrelAt(int cell) {
+            for (int i = 0; i < barrelCount; i++) {
+                if (barrelCell[i] == cell) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int mineAt(int cell) {
+            for (int i = 0; i < mineCount; i++) {
+                if (mineCell[i] == cell) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int shipAt(int cell, int ignoredShip) {
+            for (int i = 0; i < shipCount; i++) {
+                if (i != ignoredShip && (cell == shipCell[i] || cell == bow(i) || cell == stern(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void moveShip(int from, int to) {
+            if (from == to) {
+                return;
+            }
+            shipId[to] = shipId[from];
+            shipOwner[to] = shipOwner[from];
+            shipCell[to] = shipCell[from];
+            shipOrientation[to] = shipOrientation[from];
+            shipSpeed[to] = shipSpeed[from];
+            shipHealth[to] = shipHealth[from];
+            shipInitialHealth[to] = shipInitialHealth[from];
+            shipMineCooldown[to] = shipMineCooldown[from];
+            shipCannonCooldown[to] = shipCannonCooldown[from];
+            shipAction[to] = shipAction[from];
+            shipTargetX[to] = shipTargetX[from];
+            shipTargetY[to] = shipTargetY[from];
+        }
+
+        private void addBarrel(int id, int cell, int health) {
+            if (barrelCount == barrelCell.length) {
+                barrelId = Arrays.copyOf(barrelId, 2 * barrelCount);
+                barrelCell = Arrays.copyOf(barrelCell, 2 * barrelCount);
+                barrelHealth = Arrays.copyOf(barrelHealth, 2 * barrelCount);
+            }
+            barrelId[barrelCount] = id;
+            barrelCell[barrelCount] = cell;
+            barrelHealth[barrelCount] = health;
+            barrelCount++;
+            nextEntityId = Math.max(nextEntityId, id + 1);
+        }
+
+        private void removeBarrel(int i) {
+            int tail = --barrelCount - i;
+            System.arraycopy(barrelId, i + 1, barrelId, i, tail);
+            System.arraycopy(barrelCell, i + 1, barrelCell, i, tail);
+            System.arraycopy(barrelHealth, i + 1, barrelHealth, i, tail);
+        }
+
+        private void addMine(int id, int cell) {
+            if (mineCount == mineCell.length) {
+                mineId = Arrays.copyOf(mineId, 2 * mineCount);
+                mineCell = Arrays.copyOf(mineCell, 2 * mineCount);
+            }
+            mineId[mineCount] = id;
+            mineCell[mineCount] = cell;
+            mineCount++;
+            nextEntityId = Math.max(nextEntityId, id + 1);
+        }
+
+        private void removeMine(int i) {
+            int tail = --mineCount - i;
+            System.arraycopy(mineId, i + 1, mineId, i, tail);
+            System.arraycopy(mineCell, i + 1, mineCell, i, tail);
+        }
+
+        private void addCannonball(int id, int cell, int owner, int srcX, int srcY, int remainingTurns) {
+            if (cannonballCount == cannonballCell.length) {
+                int capacity = 2 * cannonballCount;
+                cannonballId = Arrays.copyOf(cannonballId, capacity);
+                cannonballCell = Arrays.copyOf(cannonballCell, capacity);
+                cannonballOwner = Arrays.copyOf(cannonballOwner, capacity);
+                cannonballSrcX = Arrays.copyOf(cannonballSrcX, capacity);
+                cannonballSrcY = Arrays.copyOf(cannonballSrcY, capacity);
+                cannonballInitialTurns = Arrays.copyOf(cannonballInitialTurns, capacity);
+                cannonballRemainingTurns = Arrays.copyOf(cannonballRemainingTurns, capacity);
+            }
+            cannonballId[cannonballCount] = id;
+            cannonballCell[cannonballCount] = cell;
+            cannonballOwner[cannonballCount] = owner;
+            cannonballSrcX[cannonballCount] = srcX;
+            cannonballSrcY[cannonballCount] = srcY;
+            cannonballInitialTurns[cannonballCount] = remainingTurns;
+            cannonballRemainingTurns[cannonballCount] = remainingTurns;
+            cannonballCount++;
+            nextEntityId = Math.max(nextEntityId, id + 1);
+        }
+
+        private void removeCannonball(int i) {
+            int tail = --cannonballCount - i;
+            System.arraycopy(cannonballId, i + 1, cannonballId, i, tail);
+            System.arraycopy(cannonballCell, i + 1, cannonballCell, i, tail);
+            System.arraycopy(cannonballOwner, i + 1, cannonballOwner, i, tail);
+            System.arraycopy(cannonballSrcX, i + 1, cannonballSrcX, i, tail);
+            System.arraycopy(cannonballSrcY, i + 1, cannonballSrcY, i, tail);
+            System.arraycopy(cannonballInitialTurns, i + 1, cannonballInitialTurns, i, tail);
+            System.arraycopy(cannonballRemainingTurns, i + 1, cannonballRemainingTurns, i, tail);
+        }
+
+        private void removeExplosion(int i) {
+            System.arraycopy(explosionCell, i + 1, explosionCell, i, --explosionCount - i);
+        }
+
+        private void addDamage(int cell, int health, boolean hit) {
+            if (damageCount == damageCell.length) {
+                damageCell = Arrays.copyOf(damageCell, 2 * damageCount);
+                damageHealth = Arrays.copyOf(damageHealth, 2 * damageCount);
+                damageHit = Arrays.copyOf(damageHit, 2 * damageCount);
+            }
+            damageCell[damageCount] = cell;
+            damageHealth[damageCount] = health;
+            damageHit[damageCount] = hit;
+            damageCount++;
+        }
+    }
+
+    // Fixed-size open-addressed cache of Referee.eval scores, keyed by the Zobrist hash of the evaluated state and the
+    // rollout depth. Entries are overwritten when their probe window is full.
+    public static final class TranspositionTable {
+        private static final int PROBES = 8;
+
+        private final long[] keys;
+        private final int[] scores;
+        private final int mask;
+
+        public TranspositionTable(int capacity) {
+            int size = Integer.highestOneBit(Math.max(PROBES, capacity - 1) << 1);
+            keys = new long[size];
+            scores = new int[size];
+            mask = size - 1;
+        }
+
+        private static long key(long hash, int depth, int idPlayer) {
+            long key = hash ^ zobristKey(ZOBRIST_DEPTH, depth << 8 | idPlayer);
+            return key == 0 ? 1 : key;
+        }
+
+        // Index of the slot holding key, or -1 - (slot to fill) when it is absent
+        private int find(long key) {
+            int start = (int) (key ^ (key >>> 32)) & mask;
+            for (int i = 0; i < PROBES; i++) {
+                int slot = (start + i) & mask;
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                if (keys[slot] == 0) {
+                    return -1 - slot;
+                }
+            }
+            return -1 - start;
+        }
+
+        public boolean contains(long hash, int depth, int idPlayer) {
+            return find(key(hash, depth, idPlayer)) >= 0;
+        }
+
+        public int score(long hash, int depth, int idPlayer) {
+            return scores[find(key(hash, depth, idPlayer))];
+        }
+
+        public void put(long hash, int depth, int idPlayer, int score) {
+            long key = key(hash, depth, idPlayer);
+            int slot = find(key);
+            if (slot < 0) {
+                slot = -1 - slot;
+                keys[slot] = key;
+            }
+            scores[slot] = score;
+        }
+
+        public void clear() {
+            Arrays.fill(keys, 0);
+        }
+    }
+
+    // Open-addressed set of primitive longs (genome keys of the mutation loop), cleared at each turn
+    public static final class LongHashSet {
+        private long[] keys;
+        private int size;
+        private boolean containsZero;
+
+        public LongHashSet(int capacity) {
+            keys = new long[Integer.highestOneBit(Math.max(2, capacity - 1) << 1)];
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) (key ^ (key >>> 32)) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        public boolean contains(long key) {
+            return key == 0 ? containsZero : keys[slot(key)] == key;
+        }
+
+        // Returns false if key was already present
+        public boolean add(long key) {
+            if (key == 0) {
+                boolean added = !containsZero;
+                containsZero = true;
+                return added;
+            }
+            int slot = slot(key);
+            if (keys[slot] == key) {
+                return false;
+            }
+            keys[slot] = key;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return true;
+        }
+
+        private void grow() {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+            AllocationEvent allocation = new AllocationEvent();
+            if (allocation.shouldCommit()) {
+                allocation.site = "LongHashSet.grow";
+                allocation.objects = 1;
+                allocation.bytes = 8L * keys.length;
+                allocation.commit();
+            }
+            for (long key : old) {
+                if (key != 0) {
+                    keys[slot(key)] = key;
+                }
+            }
+        }
+
+        public void clear() {
+            if (size > 0) {
+                Arrays.fill(keys, 0);
+                size = 0;
+            }
+            containsZero = false;
+        }
+    }
+
+    // Simulation counters for the bot logs: time and calls of each updateGame phase and of eval, simulated turns,
+    // rollouts, board copies and the boards or genomes found again. ENABLED is a compile-time constant so that javac
+    // drops the if (Profile.ENABLED) blocks; set it to true to get one line per turn from Player.
+    static final class Profile {
+        static final boolean ENABLED = false;
+
+        static final int MOVE_CANNONBALLS = 0;
+        static final int DECREMENT_RUM = 1;
+        static final int APPLY_ACTIONS = 2;
+        static final int MOVE_SHIPS = 3;
+        static final int ROTATE_SHIPS = 4;
+        static final int CHECK_COLLISIONS = 5; // part of moveShips and rotateShips
+        static final int EXPLODE_SHIPS = 6;
+        static final int EXPLODE_MINES = 7;
+        static final int EXPLODE_BARRELS = 8;
+        static final int SINK_SHIPS = 9;
+        static final int EVAL = 10;
+        private static final String[] PHASES = { "cannonballs", "rum", "actions", "move", "rotate", "collisions", "shipHits",
+                "mines", "barrels", "sink", "eval" };
+        static final int TURNS = PHASES.length; // updateGame calls
+        static final int ROLLOUTS = TURNS + 1; // Solution.eval calls
+        static final int COPIES = TURNS + 2; // restoreFrom and ObjectCloner.deepCopy calls
+        static final int TABLE_HITS = TURNS + 3; // scores found in the transposition table
+        static final int DUPLICATES = TURNS + 4; // mutated genomes already tried
+
+        // Shared by the search threads
+        private static final AtomicLongArray NANOS = new AtomicLongArray(PHASES.length);
+        private static final AtomicLongArray COUNTS = new AtomicLongArray(DUPLICATES + 1);
+        private static volatile long turnStart = System.nanoTime();
+
+        private Profile() {
+        }
+
+        static void count(int counter) {
+            COUNTS.incrementAndGet(counter);
+        }
+
+        // Adds the time since start to phase and returns the current time, the start of the next phase
+        static long time(int phase, long start) {
+            long now = System.nanoTime();
+            NANOS.addAndGet(phase, now - start);
+            COUNTS.incrementAndGet(phase);
+            return now;
+        }
+
+        static void startTurn() {
+            for (int i = 0; i < COUNTS.length(); i++) {
+                COUNTS.set(i, 0);
+            }
+            for (int i = 0; i < NANOS.length(); i++) {
+                NANOS.set(i, 0);
+            }
+            turnStart = System.nanoTime();
+        }
+
+        // The counters since startTurn, e.g. "profile 41ms turns 52310 1276k/s rollouts 8718 213k/s copies 3 tt 1022
+        // dup 75 | cannonballs 1.2ms/52310 ...": milliseconds and calls of each phase
+        static String line() {
+            long elapsed = Math.max(1, System.nanoTime() - turnStart);
+            StringBuilder line = new StringBuilder("profile ").append(elapsed / 1_000_000).append("ms");
+            line.append(" turns ").append(COUNTS.get(TURNS)).append(' ').append(COUNTS.get(TURNS) * 1_000_000 / elapsed).append("k/s");
+            line.append(" rollouts ").append(COUNTS.get(ROLLOUTS)).append(' ').append(COUNTS.get(ROLLOUTS) * 1_000_000 / elapsed).append("k/s");
+            line.append(" copies ").append(COUNTS.get(COPIES));
+            line.append(" tt ").append(COUNTS.get(TABLE_HITS));
+            line.append(" dup ").append(COUNTS.get(DUPLICATES));
+            line.append(" |");
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                line.append(' ').append(PHASES[phase]).append(' ').append(String.format("%.1f", NANOS.get(phase) / 1e6)).append("ms/")
+                        .append(COUNTS.get(phase));
+            }
+            return line.toString();
+        }
+    }
+
+    // JFR events of the bot, in the Caribbean category: a recording shows in which turn phase, rollout or copy a latency
+    // spike or a GC happens. Disabled events cost nothing once compiled.
+    @Name("caribbean.Turn")
+    @Label("Bot Turn")
+    @Category("Caribbean")
+    @StackTrace(false)
+    static final class TurnEvent extends Event {
+        @Label("Turn")
+        int turn;
+        @Label("Parse")
+        @Timespan
+        long parse;
+        @Label("Copy")
+        @Timespan
+        long copy;
+        @Label("Search")
+        @Timespan
+        long search;
+        @Label("Output")
+        @Timespan
+        long output;
+        @Label("Evaluations")
+        int evaluations;
+    }
+
+    // Tens of thousands per second: only the slow ones by default, a threshold of 0 ms in the recording settings keeps
+    // them all
+    @Name("caribbean.Rollout")
+    @Label("Rollout")
+    @Category("Caribbean")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class RolloutEvent extends Event {
+        @Label("Depth")
+        int depth;
+        @Label("Score")
+        int score;
+    }
+
+    @Name("caribbean.Copy")
+    @Label("Board Copy")
+    @Category("Caribbean")
+    @StackTrace(false)
+    static final class CopyEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Entities")
+        int entities; // restoreFrom only
+        @Label("Serialized Size")
+        @DataAmount
+        long bytes; // deepCopy only
+    }
+
+    // Allocations left in the hot paths: entities missing from the restoreFrom pools, growing buffers
+    @Name("caribbean.Allocation")
+    @Label("Bot Allocation")
+    @Category("Caribbean")
+    static final class AllocationEvent extends Event {
+        @Label("Site")
+        String site;
+        @Label("Objects")
+        int objects;
+        @Label("Array Size")
+        @DataAmount
+        long bytes;
+    }
+
+    // Buffered reader of the game input, parsing ints and entity types straight from the bytes (replaces Scanner in Player.main)
+    public static final class InputReader {
+        public static final int SHIP = 0;
+        public static final int BARREL = 1;
+        public static final int MINE = 2;
+        public static final int CANNONBALL = 3;
+        private static final byte[][] TYPE_NAMES = { "SHIP".getBytes(), "BARREL".getBytes(), "MINE".getBytes(), "CANNONBALL".getBytes() };
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private final byte[] token = new byte[16];
+        private int length;
+        private int position;
+
+        public InputReader(InputStream in) {
+            this.in = in;
+        }
+
+        private int read() throws IOException {
+            if (position == length) {
+                length = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (length <= 0) {
+                    length = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        private int skipWhitespace() throws IOException {
+            int c = read();
+            while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                c = read();
+            }
+            if (c == -1) {
+                throw new NoSuchElementException();
+            }
+            return c;
+        }
+
+        // Like Scanner.nextInt: NoSuchElementException at the end of input, InputMismatchException for a token that is not
+        // a number
+        public int nextInt() throws IOException {
+            int c = skipWhitespace();
+            boolean negative = c == '-';
+            if (negative) {
+                c = read();
+            }
+            int digits = 0;
+            int value = 0;
+            while (c >= '0' && c <= '9') {
+                value = value * 10 + c - '0';
+                digits++;
+                c = read();
+            }
+            if (digits == 0 || c > ' ') {
+                throw new InputMismatchException();
+            }
+            return negative ? -value : value;
+        }
+
+        // One of the type constants, -1 for an unknown token
+        public int nextEntityType() throws IOException {
+            int c = skipWhitespace();
+            int size = 0;
+            while (c > ' ') {
+                if (size < token.length) {
+                    token[size] = (byte) (c >= 'a' && c <= 'z' ? c - 'a' + 'A' : c);
+                }
+                size++;
+                c = read();
+            }
+            for (int type = 0; type < TYPE_NAMES.length; type++) {
+                byte[] name = TYPE_NAMES[type];
+                if (name.length == size && Arrays.equals(name, 0, size, token, 0, size)) {
+                    return type;
+                }
+            }
+            return -1;
+        }
+    }
+
+	public static class Solution implements Serializable
+	{
+		int shipCount;
+		int[] shipMoves1; // Command encoded actions, one per depth
+		int[] shipMoves2;
+		int[] shipMoves3;
+		int[] turnActions; // actions of the alive ships for one turn of evalMoves
+		Referee referee;
+		Integer[] score;
+		int sumScore;
+		int depth;
+		int idPlayer;
+		int idOpponentPlayer;
+		transient TranspositionTable table; // shared by the solutions of a search, optional
+		transient ArrayReferee arrayBoard; // plays the rollouts of eval instead of referee when set, see useArrayEngine
+	    
+	    public Solution(Referee referee, int playerId)
+	    {
+	    	this.depth = 4;
+	    	this.shipMoves1 = new int[depth];
+	    	this.shipMoves2 = new int[depth];
+	    	this.shipMoves3 = new int[depth];
+	    	this.turnActions = new int[MAX_SHIPS];
+	    	this.shipCount = referee.players.get(playerId).shipsAlive.size();
+	    	this.score = new Integer[depth];
+	    	this.sumScore = 0;
+            this.referee = referee;
+            this.idPlayer = 1;
+            this.idOpponentPlayer = (idPlayer == 1) ? 0 : 1;
+	    }
+
+	    // Field by field copy of other, sharing its referee (replaces ObjectCloner.deepCopy in the search loop)
+	    public void copyFrom(Solution other)
+	    {
+	    	this.shipCount = other.shipCount;
+	    	this.depth = other.depth;
+	    	this.sumScore = other.sumScore;
+	    	this.idPlayer = other.idPlayer;
+	    	this.idOpponentPlayer = other.idOpponentPlayer;
+	    	this.referee = other.referee;
+	    	this.table = other.table;
+	    	this.arrayBoard = other.arrayBoard;
+	    	this.shipMoves1 = copyMoves(other.shipMoves1, this.shipMoves1);
+	    	this.shipMoves2 = copyMoves(other.shipMoves2, this.shipMoves2);
+	    	this.shipMoves3 = copyMoves(other.shipMoves3, this.shipMoves3);
+	    	if (this.score.length != other.score.length)
+	    	{
+	    		this.score = new Integer[other.score.length];
+	    	}
+	    	System.arraycopy(other.score, 0, this.score, 0, other.score.length);
+	    }
+
+	    private static int[] copyMoves(int[] source, int[] target)
+	    {
+	    	if (target.length != source.length) target = new int[source.length];
+	    	System.arraycopy(source, 0, target, 0, source.length);
+	    	return target;
+	    }
+
+        public List<Coord> computeFireTargets(Ship ship)
+        {
+        	List<Coord> fireTargets = new ArrayList<Coord>();
+        	for (Ship opponentShip : referee.players.get(idOpponentPlayer).shipsAlive)
+        	{
+        		int distance = ship.bow().distanceTo(opponentShip.position);
+                int travelTime = (int) (1 + Math.round(distance / 3.0));
+        		if (travelTime <= 1)
+        		{
+                    fireTargets.add(opponentShip.position);
+                    return fireTargets;
+        		}
+        		else if (distance < FIRE_DISTANCE_MAX / 2)
+        		{
+        			int newX; int newY;
+                    if (opponentShip.position.y % 2 == 1) {
+                        newY = opponentShip.position.y + opponentShip.position.DIRECTIONS_ODD[opponentShip.orientation][1] * opponentShip.speed * travelTime;
+                        newX = opponentShip.position.x + opponentShip.position.DIRECTIONS_ODD[opponentShip.orientation][0] * opponentShip.speed * travelTime;
+                    } else {
+                        newY = opponentShip.position.y + opponentShip.position.DIRECTIONS_EVEN[opponentShip.orientation][1] * opponentShip.speed * travelTime;
+                        newX = opponentShip.position.x + opponentShip.position.DIRECTIONS_EVEN[opponentShip.orientation][0] * opponentShip.speed * travelTime;
+                    }
+                    
+                    fireTargets.add(Coord.of(newX, newY));
+        		}
+        	}
+        	if (fireTargets.size() == 0 && referee.mines.size() != 0)
+        	{
+        		Mine closestMine = ship.closestMine(this.referee.mines);
+        		int distance = ship.bow().distanceTo(closestMine.position);
+        		if (1 < distance && distance <= FIRE_DISTANCE_MAX)
+        		{
+                    fireTargets.add(closestMine.position);
+        		}
+        	}
+        	return fireTargets;
+        }
+        
+
+	    protected int[] makeDecision(Referee referee)
+	    {
+        	int iShip = 0;
+        	int[] move = new int[referee.players.get(idPlayer).shipsAlive.size()];
+	    	for (Ship ship : referee.players.get(idPlayer).shipsAlive)
+            {
+    			int currentMove = Command.WAIT.encode();
+    			if (referee.barrels.size() != 0)
+            	{
+                    RumBarrel rum = ship.closestBarrel(referee.barrels);
+                    currentMove = Command.MOVE.encode(rum.position.x, rum.position.y);
+            	}
+    			if (ship.cannonCooldown == 0)
+            	{
+    				List<Coord> fireTargets = this.computeFireTargets(ship);
+    				if (fireTargets.size() != 0) currentMove = Command.FIRE.encode(fireTargets.get(0).x, fireTargets.get(0).y);
+            	}
+                move[iShip] = currentMove;
+                iShip++;
+            }
+            return move;
+	    }
+	    
+	    protected void heuristicSimulation(int depth, Referee referee)
+	    {
+	    	int idPlayer = 1;
+	    	for (int iDepth = 0; iDepth < depth; iDepth++)
+	    	{
+	    		try
+	    		{
+		    		int[] outputTurn = this.makeDecision(referee);
+	                referee.apply(idPlayer, outputTurn);
+
+		            this.score[iDepth] = referee.eval(idPlayer);
+		            this.sumScore += this.score[iDepth];
+		            
+	                int iShip = 0;
+	                if (1 <= shipCount)
+	                {
+	                	shipMoves1[iDepth] = outputTurn[iShip];
+	                	iShip++;
+	                }
+	                if (2 <= shipCount)
+	                {
+	                	shipMoves2[iDepth] = outputTurn[iShip];
+	                	iShip++;
+	                }
+	                if (3 <= shipCount)
+	                {
+	                	shipMoves3[iDepth] = outputTurn[iShip];
+	                	iShip++;
+	                }
+	    		}
+	    		catch (Exception e)
+	    		{
+	    			System.err.println(e);
+	    		}
+	    	}
+	    }
+	    
+	    public void randomize()
+	    {
+    	    for (int i = 0; i < this.depth; i++)
+    	    {
+                if (1 <=  this.referee.players.get(idPlayer).shipsAlive.size())
+                {
+                	shipMoves1[i] = randomAction(this.referee.players.get(idPlayer).shipsAlive.get(0));
+                }
+                if (2 <=  this.referee.players.get(idPlayer).shipsAlive.size())
+                {
+                	shipMoves2[i] = randomAction(this.referee.players.get(idPlayer).shipsAlive.get(1));
+                }
+                if (3 <=  this.referee.players.get(idPlayer).shipsAlive.size())
+                {
+                	shipMoves3[i] = randomAction(this.referee.players.get(idPlayer).shipsAlive.get(2));
+                }
+    	    }
+	    }
+
+	    public int randomAction(Ship ship)
+	    {
+	    	int countCommand;
+	    	if (LEAGUE_LEVEL == 0) countCommand = 0;
+	    	else if (LEAGUE_LEVEL == 1 || LEAGUE_LEVEL == 2) countCommand = 2;
+	    	else countCommand = 6;
+	    	
+	    	int move = -1;
+	    	while (move == -1)
+	    	{
+		    	int command = referee.random.nextInt(countCommand);
+		    	switch(command)
+		        {
+			        case 0: move = Command.WAIT.encode(); break;
+			        case 1: {
+			        	if (ship.cannonCooldown == 0)
+			        	{
+				        	List<Coord> fireTargets = new ArrayList<Coord>();
+				        	fireTargets = this.computeFireTargets(ship);
+				        	if (fireTargets.size() != 0)
+				        	{
+				        		int idFireTarget = referee.random.nextInt(fireTargets.size());
+				        		move = Command.FIRE.encode(fireTargets.get(idFireTarget).x, fireTargets.get(idFireTarget).y);
+				        	}
+			        	}
+
+			        }
+			        break;
+			    	case 2: move = Command.SLOWER.encode(); break;
+			        case 3: move = Command.FASTER.encode(); break;
+			        case 4: move = Command.PORT.encode(); break;
+			        case 5: move = Command.STARBOARD.encode(); break;
+		        }	
+	    	}
+	    	return move;
+	    }
+	    
+	    // Rollouts on a copy of referee in an ArrayReferee, with the same scores and without the transposition table
+	    public void useArrayEngine()
+	    {
+	    	this.arrayBoard = new ArrayReferee();
+	    }
+
+	    // Plays the moves on referee and scores each turn, then undoes them: referee is left unchanged
+	    public void eval(int idPlayer)
 	    {
 	    	this.sumScore = 0;
+	    	if (Profile.ENABLED) Profile.count(Profile.ROLLOUTS);
+	    	RolloutEvent event = new RolloutEvent();
+	    	event.begin();
+	    	if (arrayBoard != null)
+	    	{
+	    		evalArrayMoves(idPlayer);
+	    	}
+	    	else
+	    	{
+	    		int mark = referee.journalMark();
+	    		try
+	    		{
+	    			evalMoves(idPlayer);
+	    		}
+	    		finally
+	    		{
+	    			referee.undo(mark);
+	    		}
+	    	}
+	    	if (event.shouldCommit())
+	    	{
+	    		event.depth = depth;
+	    		event.score = sumScore;
+	    		event.commit();
+	    	}
+	    }
+
+	    private void evalMoves(int idPlayer)
+	    {
     		for (int i = 0; i < this.depth; i++)
     		{
     			int j = 0;
-        		String[] outputs = new String[referee.players.get(idPlayer).shipsAlive.size()];
+        		int[] outputs = this.turnActions;
         		
                 if (1 <= referee.players.get(idPlayer).shipsAlive.size())
                 {
-                	outputs[j] = this.shipMoves1.get(i);
+                	outputs[j] = this.shipMoves1[i];
+                	j++;
+                }
+                if (2 <= referee.players.get(idPlayer).shipsAlive.size())
+                {
+                	outputs[j] = this.shipMoves2[i];
+                	j++;
+                }
+                if (3 <= referee.players.get(idPlayer).shipsAlive.size())
+                {
+                	outputs[j] = this.shipMoves3[i];
                 	j++;
                 }
-                if (2 <= referee.players.get(idPlayer).shipsAlive.size())
-                {
-                	outputs[j] = this.shipMoves2.get(i);
-                	j++;
+    	    	boolean gameOver = false;
+    	    	try {
+					referee.apply(idPlayer, outputs);
+				} catch (GameOverException e) {
+					gameOver = true;
+				}
+    	    	this.score[i] = evalState(i, idPlayer);
+    	    	this.sumScore += this.score[i];
+    	    	if (gameOver)
+    	    	{
+    	    		scoreFinalState(i);
+    	    		break;
+    	    	}
+    		}
+	    }
+
+	    // Same turns as evalMoves on arrayBoard, loaded from referee which is not touched
+	    private void evalArrayMoves(int idPlayer)
+	    {
+	    	arrayBoard.loadFrom(referee);
+	    	for (int i = 0; i < this.depth; i++)
+	    	{
+	    		int alive = arrayBoard.shipsAlive(idPlayer);
+	    		int[] outputs = this.turnActions;
+	    		if (1 <= alive) outputs[0] = this.shipMoves1[i];
+	    		if (2 <= alive) outputs[1] = this.shipMoves2[i];
+	    		if (3 <= alive) outputs[2] = this.shipMoves3[i];
+	    		arrayBoard.prepare();
+	    		arrayBoard.applyActions(idPlayer, outputs);
+	    		boolean gameOver = arrayBoard.updateGame();
+	    		this.score[i] = arrayBoard.eval(idPlayer);
+	    		this.sumScore += this.score[i];
+	    		if (gameOver)
+	    		{
+	    			scoreFinalState(i);
+	    			break;
+	    		}
+	    	}
+	    }
+
+	    // The game ended on turn i: its final state keeps its score for the rest of the plan
+	    private void scoreFinalState(int i)
+	    {
+	    	for (int j = i + 1; j < this.depth; j++)
+	    	{
+	    		this.score[j] = this.score[i];
+	    		this.sumScore += this.score[i];
+	    	}
+	    }
+
+	    // Sequences that converge on the same board reuse its score
+	    private int evalState(int depth, int idPlayer)
+	    {
+	    	if (table == null) return referee.eval(idPlayer);
+	    	long hash = referee.zobristHash();
+	    	if (table.contains(hash, depth, idPlayer))
+	    	{
+	    		if (Profile.ENABLED) Profile.count(Profile.TABLE_HITS);
+	    		return table.score(hash, depth, idPlayer);
+	    	}
+	    	int score = referee.eval(idPlayer);
+	    	table.put(hash, depth, idPlayer, score);
+	    	return score;
+	    }
+	    
+	    public void rotateLeft(int[] tab)
+	    {
+	    	if (2 <= tab.length)
+	    	{
+		        int firstElement = tab[0];
+		        System.arraycopy(tab, 1, tab, 0, tab.length - 1);
+		        tab[tab.length - 1] = firstElement;
+	    	}
+	    }
+	    
+	    // Next action of each alive ship, the plans move one turn forward
+	    public int[] nextMove(int idPlayer)
+	    {
+	    	return move(idPlayer, true);
+	    }
+
+	    // Same as nextMove, but the plan is left as it is
+	    public int[] firstMove(int idPlayer)
+	    {
+	    	return move(idPlayer, false);
+	    }
+
+	    private int[] move(int idPlayer, boolean shift)
+	    {
+	    	int[] outputTurn = new int[this.referee.players.get(idPlayer).shipsAlive.size()];
+	    	for (int iShipCount = 0; iShipCount < this.referee.players.get(idPlayer).shipsAlive.size(); iShipCount++)
+	    	{
+	    		int[] moves = null;
+	    		if (iShipCount < shipCount)
+	    		{
+	    			if (iShipCount == 0) moves = shipMoves1;
+	    			else if (iShipCount == 1) moves = shipMoves2;
+	    			else if (iShipCount == 2) moves = shipMoves3;
+	    		}
+	    		if (moves != null)
+	    		{
+	            	outputTurn[iShipCount] = moves[0];
+	            	if (shift) rotateLeft(moves);
+	    		}
+	    		else // Gameover
+	    		{
+	    			outputTurn[iShipCount] = Command.WAIT.encode();
+	    		}
+	    	}
+
+	    	return outputTurn;
+	    }
+
+	    // Output lines of the actions of nextMove
+	    public String[] format(int[] outputTurn)
+	    {
+	    	String[] lines = new String[outputTurn.length];
+	    	for (int iShipCount = 0; iShipCount < outputTurn.length; iShipCount++)
+	    	{
+	    		if (iShipCount < shipCount) lines[iShipCount] = Command.format(outputTurn[iShipCount]);
+	    		else lines[iShipCount] = "WAIT GOING TO DIE";
+	    	}
+	    	return lines;
+	    }
+
+	    public String concatenate()
+	    {
+	    	String concatenate = "";
+
+			if (1 <= this.shipCount)
+			{
+				for (int iDepth = 0; iDepth < this.shipMoves1.length ; iDepth++)
+				{
+					concatenate += Command.format(this.shipMoves1[iDepth]) + ";";
+				}
+			}
+			if (2 <= this.shipCount)
+			{
+				for (int iDepth = 0; iDepth < this.shipMoves2.length ; iDepth++)
+				{
+					concatenate += Command.format(this.shipMoves2[iDepth]) + ";";
+				}
+			}
+			if (3 <= this.shipCount)
+			{				
+				for (int iDepth = 0; iDepth < this.shipMoves3.length ; iDepth++)
+				{
+					concatenate += Command.format(this.shipMoves3[iDepth]) + ";";
+				}
+			}
+			return concatenate;
+	    }
+	    
+	    // 64 bit key of the moves, folding the encoded action of each ship at each depth (replaces the concatenate string in the search loop)
+	    public long genomeKey()
+	    {
+	    	long key = 0;
+	    	if (1 <= this.shipCount) key = genomeKey(key, shipMoves1);
+	    	if (2 <= this.shipCount) key = genomeKey(key, shipMoves2);
+	    	if (3 <= this.shipCount) key = genomeKey(key, shipMoves3);
+	    	return zobristKey(key, this.shipCount);
+	    }
+
+	    private static long genomeKey(long key, int[] moves)
+	    {
+	    	for (int iDepth = 0; iDepth < moves.length; iDepth++)
+	    	{
+	    		key = key * 0x100000001B3L + moves[iDepth];
+	    	}
+	    	return key * 0x100000001B3L + moves.length;
+	    }
+
+	    public void display()
+	    {
+    	    System.err.println("Printing moves 1");
+    	    for (int val : this.shipMoves1)
+    	    {
+    	    	System.err.println(Command.format(val));
+    	    }
+    	    System.err.println("Printing moves 2");
+    	    for (int val : this.shipMoves2)
+    	    {
+    	    	System.err.println(Command.format(val));
+    	    }
+    	    System.err.println("Printing moves 3");
+    	    for (int val : this.shipMoves3)
+    	    {
+    	    	System.err.println(Command.format(val));
+    	    }
+    	    System.err.println("sumScore: " + this.sumScore);
+	    }
+	}
+
+    // Genetic search over Solution plans. The population is stored flat: the gene of member m for ship s at depth d is
+    // genes[(m * MAX_SHIPS + s) * depth + d]. Fitness is the sumScore of Solution.eval, computed on the evaluator.
+    public static final class GeneticSearch {
+        static final int POPULATION = 24;
+        static final int ELITES = 2;
+        static final int TOURNAMENT = 3;
+        static final double MUTATION_RATE = 0.3; // for the first move, divided by depth + 1 for the next ones
+        static final int MUTATION_RETRIES = 4; // to make a child that was not evaluated yet in this turn
+
+        private final Solution evaluator;
+        private final LongHashSet tried;
+        private final Random random;
+        private final int depth;
+        private final int memberGenes;
+        private final double[] mutationRates;
+        private int[] genes;
+        private int[] nextGenes;
+        private int[] fitness = new int[POPULATION];
+        private int[] nextFitness = new int[POPULATION];
+        private boolean[] evaluated = new boolean[POPULATION];
+        private boolean[] nextEvaluated = new boolean[POPULATION];
+        private final int[] order = new int[POPULATION];
+        private boolean initialized;
+        int generations;
+        int evaluations;
+        long slowestCheck; // longest time between two deadline checks of the turn, in nanoseconds
+        private long lastCheck;
+
+        public GeneticSearch(Solution evaluator, LongHashSet tried, Random random) {
+            this.evaluator = evaluator;
+            this.tried = tried;
+            this.random = random;
+            this.depth = evaluator.depth;
+            this.memberGenes = MAX_SHIPS * depth;
+            this.genes = new int[POPULATION * memberGenes];
+            this.nextGenes = new int[POPULATION * memberGenes];
+            this.mutationRates = new double[depth];
+            for (int d = 0; d < depth; d++) {
+                mutationRates[d] = MUTATION_RATE / (d + 1);
+            }
+        }
+
+        // Starts a turn from the plan of seed: the first turn fills the population with random plans, the next ones
+        // shift every plan by the move just played. seed becomes member 0.
+        public void newTurn(Solution seed) {
+            tried.clear();
+            generations = 0;
+            evaluations = 0;
+            slowestCheck = 0;
+            lastCheck = System.nanoTime();
+            for (int m = 0; m < POPULATION; m++) {
+                for (int ship = 0; ship < MAX_SHIPS; ship++) {
+                    int start = m * memberGenes + ship * depth;
+                    if (initialized) {
+                        System.arraycopy(genes, start + 1, genes, start, depth - 1);
+                        genes[start + depth - 1] = randomGene(ship);
+                    } else {
+                        for (int d = 0; d < depth; d++) {
+                            genes[start + d] = randomGene(ship);
+                        }
+                    }
+                }
+                evaluated[m] = false;
+            }
+            for (int ship = 0; ship < MAX_SHIPS; ship++) {
+                System.arraycopy(moves(seed, ship), 0, genes, ship * depth, depth);
+            }
+            initialized = true;
+        }
+
+        // Evaluates and breeds generations until the deadline (System.nanoTime)
+        public void search(long deadline) {
+            while (step(deadline)) {
+            }
+        }
+
+        // Evaluates the population then breeds the next generation, returns false when the deadline stopped it
+        public boolean step(long deadline) {
+            for (int m = 0; m < POPULATION; m++) {
+                if (!evaluated[m]) {
+                    if (!beforeDeadline(deadline)) {
+                        return false;
+                    }
+                    evaluate(m);
+                }
+            }
+            breed();
+            generations++;
+            return beforeDeadline(deadline);
+        }
+
+        // A search stopped by the deadline can overrun it by the time between two checks: keep the longest one
+        private boolean beforeDeadline(long deadline) {
+            long now = System.nanoTime();
+            slowestCheck = Math.max(slowestCheck, now - lastCheck);
+            lastCheck = now;
+            return now < deadline;
+        }
+
+        // Copies the fittest evaluated plan to target, returns false when nothing was evaluated
+        public boolean best(Solution target) {
+            int best = bestMember();
+            if (best == -1) {
+                return false;
+            }
+            load(best, target);
+            target.sumScore = fitness[best];
+            return true;
+        }
+
+        // Index of the fittest evaluated member, -1 when there is none
+        int bestMember() {
+            int best = -1;
+            for (int m = 0; m < POPULATION; m++) {
+                if (evaluated[m] && (best == -1 || fitness[m] > fitness[best])) {
+                    best = m;
+                }
+            }
+            return best;
+        }
+
+        int fitness(int member) {
+            return fitness[member];
+        }
+
+        // The MAX_SHIPS * depth genes of member, ship by ship
+        int[] copyGenes(int member) {
+            return Arrays.copyOfRange(genes, member * memberGenes, (member + 1) * memberGenes);
+        }
+
+        private void evaluate(int member) {
+            load(member, evaluator);
+            evaluator.eval(evaluator.idPlayer);
+            fitness[member] = evaluator.sumScore;
+            evaluated[member] = true;
+            tried.add(evaluator.genomeKey());
+            evaluations++;
+        }
+
+        private void breed() {
+            for (int m = 0; m < POPULATION; m++) {
+                int i = m;
+                for (; i > 0 && fitness[order[i - 1]] < fitness[m]; i--) {
+                    order[i] = order[i - 1];
+                }
+                order[i] = m;
+            }
+            for (int m = 0; m < ELITES; m++) {
+                System.arraycopy(genes, order[m] * memberGenes, nextGenes, m * memberGenes, memberGenes);
+                nextFitness[m] = fitness[order[m]];
+                nextEvaluated[m] = true;
+            }
+            for (int m = ELITES; m < POPULATION; m++) {
+                int child = m * memberGenes;
+                int father = tournament() * memberGenes;
+                int mother = tournament() * memberGenes;
+                if (random.nextBoolean()) {
+                    // uniform crossover
+                    for (int g = 0; g < memberGenes; g++) {
+                        nextGenes[child + g] = random.nextBoolean() ? genes[father + g] : genes[mother + g];
+                    }
+                } else {
+                    // one point crossover of each ship plan
+                    for (int ship = 0; ship < MAX_SHIPS; ship++) {
+                        int start = ship * depth;
+                        int cut = depth > 1 ? 1 + random.nextInt(depth - 1) : depth;
+                        System.arraycopy(genes, father + start, nextGenes, child + start, cut);
+                        System.arraycopy(genes, mother + start + cut, nextGenes, child + start + cut, depth - cut);
+                    }
+                }
+                for (int g = 0; g < memberGenes; g++) {
+                    if (random.nextDouble() < mutationRates[g % depth]) {
+                        nextGenes[child + g] = randomGene(g / depth);
+                    }
+                }
+                for (int retry = 0; retry < MUTATION_RETRIES && tried.contains(genomeKey(nextGenes, m)); retry++) {
+                    if (Profile.ENABLED) {
+                        Profile.count(Profile.DUPLICATES);
+                    }
+                    int g = random.nextInt(memberGenes);
+                    nextGenes[child + g] = randomGene(g / depth);
+                }
+                nextEvaluated[m] = false;
+            }
+            int[] swapGenes = genes;
+            genes = nextGenes;
+            nextGenes = swapGenes;
+            int[] swapFitness = fitness;
+            fitness = nextFitness;
+            nextFitness = swapFitness;
+            boolean[] swapEvaluated = evaluated;
+            evaluated = nextEvaluated;
+            nextEvaluated = swapEvaluated;
+        }
+
+        private int tournament() {
+            int best = random.nextInt(POPULATION);
+            for (int i = 1; i < TOURNAMENT; i++) {
+                int other = random.nextInt(POPULATION);
+                if (fitness[other] > fitness[best]) {
+                    best = other;
+                }
+            }
+            return best;
+        }
+
+        // WAIT for the ships that are not alive
+        private int randomGene(int ship) {
+            List<Ship> shipsAlive = evaluator.referee.players.get(evaluator.idPlayer).shipsAlive;
+            return ship < shipsAlive.size() ? evaluator.randomAction(shipsAlive.get(ship)) : Command.WAIT.encode();
+        }
+
+        private long genomeKey(int[] population, int member) {
+            for (int ship = 0; ship < MAX_SHIPS; ship++) {
+                System.arraycopy(population, member * memberGenes + ship * depth, moves(evaluator, ship), 0, depth);
+            }
+            return evaluator.genomeKey();
+        }
+
+        private void load(int member, Solution target) {
+            for (int ship = 0; ship < MAX_SHIPS; ship++) {
+                System.arraycopy(genes, member * memberGenes + ship * depth, moves(target, ship), 0, depth);
+            }
+        }
+
+        private static int[] moves(Solution solution, int ship) {
+            return ship == 0 ? solution.shipMoves1 : ship == 1 ? solution.shipMoves2 : solution.shipMoves3;
+        }
+    }
+
+    // Binary replays: a header with the game configuration, one record per frame holding either the whole view state (a
+    // keyframe, every keyframeInterval frames) or its changes since the previous frame, then a footer with the offsets of
+    // the keyframes. Numbers are zigzag varints, the header and footer ints are fixed size.
+    private static final int REPLAY_MAGIC = 0x43505231; // "CPR1"
+    private static final int REPLAY_KEYFRAME = 0;
+    private static final int REPLAY_DELTA = 1;
+    // Bits of the sections of a delta, the frequent ones first so that the mask mostly fits in one byte
+    private static final int REPLAY_SECTION_DAMAGE = 0;
+    private static final int[] REPLAY_SECTION_REMOVED = { 2, 6, 4 }; // of cannonballs, mines and barrels
+    private static final int[] REPLAY_SECTION_CHANGED = { 3, 9, 8 };
+    private static final int[] REPLAY_SECTION_ADDED = { 1, 7, 5 };
+    private static final int REPLAY_SECTION_SHIPS = 10; // ships appeared
+
+    // View state of a frame as int records: ships (id, x, y, orientation, health, speed, action) and their messages for
+    // each player, then the lists of cannonballs (id, x, y, srcX, srcY, initialRemainingTurns, remainingTurns, owner),
+    // mines (id, x, y), barrels (id, x, y, health) and damage (x, y, health, hit)
+    static final class ReplayFrame {
+        static final int SHIP = 7;
+        // Delta mask of a ship: the new action + 1 in bits 0-2 (0 when unchanged), then the fields that differ from
+        // predictShip, the most frequent first so that the mask mostly fits in one byte
+        static final int[] SHIP_BITS = { -1, 6, 7, 3, 4, 5 };
+        static final int SHIP_MESSAGE_BIT = 8;
+        static final int CANNONBALLS = 0;
+        static final int MINES = 1;
+        static final int BARRELS = 2;
+        static final int DAMAGE = 3;
+        static final int[] WIDTH = { 8, 3, 4, 4 };
+
+        int[] playerIds = new int[2];
+        int[][] ships = new int[2][SHIP * MAX_SHIPS];
+        String[][] messages = new String[2][MAX_SHIPS];
+        int[] shipCounts = new int[2];
+        int[][] lists = { new int[8 * 16], new int[3 * 16], new int[4 * 16], new int[4 * 16] };
+        int[] counts = new int[4];
+
+        void load(Referee referee) {
+            setPlayerCount(referee.players.size());
+            for (int p = 0; p < playerIds.length; p++) {
+                Player player = referee.players.get(p);
+                playerIds[p] = player.id;
+                shipCounts[p] = 0;
+                for (Ship ship : player.ships) {
+                    int[] record = addShip(p);
+                    int at = (shipCounts[p] - 1) * SHIP;
+                    record[at] = ship.id;
+                    record[at + 1] = ship.position.x;
+                    record[at + 2] = ship.position.y;
+                    record[at + 3] = ship.orientation;
+                    record[at + 4] = ship.health;
+                    record[at + 5] = ship.speed;
+                    record[at + 6] = ship.action == null ? 0 : ship.action.ordinal() + 1;
+                    messages[p][shipCounts[p] - 1] = ship.message;
+                }
+            }
+            Arrays.fill(counts, 0);
+            for (Cannonball ball : referee.cannonballs) {
+                int[] record = add(CANNONBALLS);
+                int at = (counts[CANNONBALLS] - 1) * WIDTH[CANNONBALLS];
+                record[at] = ball.id;
+                record[at + 1] = ball.position.x;
+                record[at + 2] = ball.position.y;
+                record[at + 3] = ball.srcX;
+                record[at + 4] = ball.srcY;
+                record[at + 5] = ball.initialRemainingTurns;
+                record[at + 6] = ball.remainingTurns;
+                record[at + 7] = ball.ownerEntityId;
+            }
+            for (Mine mine : referee.mines) {
+                int[] record = add(MINES);
+                int at = (counts[MINES] - 1) * WIDTH[MINES];
+                record[at] = mine.id;
+                record[at + 1] = mine.position.x;
+                record[at + 2] = mine.position.y;
+            }
+            for (RumBarrel barrel : referee.barrels) {
+                int[] record = add(BARRELS);
+                int at = (counts[BARRELS] - 1) * WIDTH[BARRELS];
+                record[at] = barrel.id;
+                record[at + 1] = barrel.position.x;
+                record[at + 2] = barrel.position.y;
+                record[at + 3] = barrel.health;
+            }
+            for (Damage d : referee.damage) {
+                int[] record = add(DAMAGE);
+                int at = (counts[DAMAGE] - 1) * WIDTH[DAMAGE];
+                record[at] = d.position.x;
+                record[at + 1] = d.position.y;
+                record[at + 2] = d.health;
+                record[at + 3] = d.hit ? 1 : 0;
+            }
+        }
+
+        void setPlayerCount(int playerCount) {
+            if (playerIds.length != playerCount) {
+                playerIds = new int[playerCount];
+                ships = new int[playerCount][SHIP * MAX_SHIPS];
+                messages = new String[playerCount][MAX_SHIPS];
+                shipCounts = new int[playerCount];
+            }
+        }
+
+        // Appends a ship to player p and returns the array holding it
+        int[] addShip(int p) {
+            if ((shipCounts[p] + 1) * SHIP > ships[p].length) {
+                ships[p] = Arrays.copyOf(ships[p], 2 * ships[p].length);
+                messages[p] = Arrays.copyOf(messages[p], 2 * messages[p].length);
+            }
+            shipCounts[p]++;
+            return ships[p];
+        }
+
+        // Appends a record to the list and returns the array holding it
+        int[] add(int list) {
+            if ((counts[list] + 1) * WIDTH[list] > lists[list].length) {
+                lists[list] = Arrays.copyOf(lists[list], 2 * lists[list].length);
+            }
+            counts[list]++;
+            return lists[list];
+        }
+
+        // What a ship becomes on the next frame when nothing hits it, once its action of that frame is set: the action
+        // is applied, the ship loses one rum and moves speed cells ahead
+        void predictShip(int[] record, int at) {
+            if (record[at + 4] <= 0) {
+                return;
+            }
+            Action action = record[at + 6] == 0 ? null : Action.values()[record[at + 6] - 1];
+            if (action == Action.FASTER && record[at + 5] < MAX_SHIP_SPEED) {
+                record[at + 5]++;
+            } else if (action == Action.SLOWER && record[at + 5] > 0) {
+                record[at + 5]--;
+            }
+            record[at + 4]--;
+            Coord position = Coord.of(record[at + 1], record[at + 2]);
+            for (int i = 0; i < record[at + 5]; i++) {
+                Coord next = position.neighbor(record[at + 3]);
+                if (!next.isInsideMap()) {
+                    record[at + 5] = 0;
+                    break;
+                }
+                position = next;
+            }
+            record[at + 1] = position.x;
+            record[at + 2] = position.y;
+            if (action == Action.PORT) {
+                record[at + 3] = (record[at + 3] + 1) % 6;
+            } else if (action == Action.STARBOARD) {
+                record[at + 3] = (record[at + 3] + 5) % 6;
+            }
+        }
+
+        // What a surviving record becomes on the next frame when nothing else happens to it: cannonballs count down
+        void predict(int list, int[] record, int at) {
+            if (list == CANNONBALLS && record[at + 6] > 0) {
+                record[at + 6]--;
+            }
+        }
+
+        void copyFrom(ReplayFrame other) {
+            setPlayerCount(other.playerIds.length);
+            for (int p = 0; p < playerIds.length; p++) {
+                playerIds[p] = other.playerIds[p];
+                shipCounts[p] = 0;
+                for (int i = 0; i < other.shipCounts[p]; i++) {
+                    addShip(p);
+                }
+                System.arraycopy(other.ships[p], 0, ships[p], 0, other.shipCounts[p] * SHIP);
+                System.arraycopy(other.messages[p], 0, messages[p], 0, other.shipCounts[p]);
+            }
+            for (int list = 0; list < lists.length; list++) {
+                counts[list] = 0;
+                for (int i = 0; i < other.counts[list]; i++) {
+                    add(list);
+                }
+                System.arraycopy(other.lists[list], 0, lists[list], 0, other.counts[list] * WIDTH[list]);
+            }
+        }
+
+        // The lines of getFrameDataForView for a key frame
+        String[] toLines() {
+            List<String> data = new ArrayList<>();
+            for (int p = 0; p < playerIds.length; p++) {
+                data.add(String.valueOf(playerIds[p]));
+                for (int i = 0; i < shipCounts[p]; i++) {
+                    int[] s = ships[p];
+                    int at = i * SHIP;
+                    Coord position = Coord.of(s[at + 1], s[at + 2]);
+                    Coord bow = position.neighbor(s[at + 3]);
+                    Coord stern = position.neighbor((s[at + 3] + 3) % 6);
+                    Object action = s[at + 6] == 0 ? "WAIT" : Action.values()[s[at + 6] - 1];
+                    data.add(join(s[at], position.y, position.x, s[at + 3], s[at + 4], s[at + 5], action, bow.y, bow.x, stern.y, stern.x,
+                            " ;" + (messages[p][i] != null ? messages[p][i] : "")));
+                }
+            }
+            int[] b = lists[CANNONBALLS];
+            data.add(String.valueOf(counts[CANNONBALLS]));
+            for (int at = 0; at < counts[CANNONBALLS] * WIDTH[CANNONBALLS]; at += WIDTH[CANNONBALLS]) {
+                data.add(join(b[at], b[at + 2], b[at + 1], b[at + 4], b[at + 3], b[at + 5], b[at + 6], b[at + 7]));
+            }
+            int[] m = lists[MINES];
+            data.add(String.valueOf(counts[MINES]));
+            for (int at = 0; at < counts[MINES] * WIDTH[MINES]; at += WIDTH[MINES]) {
+                data.add(join(m[at], m[at + 2], m[at + 1]));
+            }
+            int[] r = lists[BARRELS];
+            data.add(String.valueOf(counts[BARRELS]));
+            for (int at = 0; at < counts[BARRELS] * WIDTH[BARRELS]; at += WIDTH[BARRELS]) {
+                data.add(join(r[at], r[at + 2], r[at + 1], r[at + 3]));
+            }
+            int[] d = lists[DAMAGE];
+            data.add(String.valueOf(counts[DAMAGE]));
+            for (int at = 0; at < counts[DAMAGE] * WIDTH[DAMAGE]; at += WIDTH[DAMAGE]) {
+                data.add(join(d[at + 1], d[at], d[at + 2], d[at + 3]));
+            }
+            return data.toArray(new String[data.size()]);
+        }
+    }
+
+    // Writes the replay of a game: frame after initReferee and after every updateGame, then finish
+    public static final class ReplayWriter {
+        private final int keyframeInterval;
+        private byte[] bytes = new byte[1 << 12];
+        private int size;
+        private ReplayFrame previous = new ReplayFrame();
+        private ReplayFrame current = new ReplayFrame();
+        private final ReplayFrame predicted = new ReplayFrame();
+        private int[] shipMasks = new int[2 * MAX_SHIPS];
+        private final int[] survivors = new int[ReplayFrame.DAMAGE];
+        private final int[] changed = new int[ReplayFrame.DAMAGE];
+        private int frames;
+        private int[] keyframeOffsets = new int[16];
+        private int keyframes;
+
+        public ReplayWriter(Referee referee, int keyframeInterval) {
+            this.keyframeInterval = keyframeInterval;
+            writeInt(REPLAY_MAGIC);
+            writeLong(referee.seed);
+            writeVarint(referee.shipsPerPlayer);
+            writeVarint(referee.mineCount);
+            writeVarint(referee.barrelCount);
+            writeVarint(keyframeInterval);
+        }
+
+        public void frame(Referee referee) {
+            current.load(referee);
+            int ships = 0;
+            for (int p = 0; p < current.playerIds.length; p++) {
+                ships += current.shipCounts[p];
+            }
+            if (ships > 20) { // the ship and section masks of a delta share an int
+                throw new IllegalStateException("Too many ships for a replay: " + ships);
+            }
+            if (ships > shipMasks.length) {
+                shipMasks = new int[ships];
+            }
+            if (frames % keyframeInterval == 0) {
+                if (keyframes == keyframeOffsets.length) {
+                    keyframeOffsets = Arrays.copyOf(keyframeOffsets, 2 * keyframes);
+                }
+                keyframeOffsets[keyframes++] = size;
+                writeVarint(REPLAY_KEYFRAME);
+                writeKeyframe();
+            } else {
+                writeVarint(REPLAY_DELTA);
+                writeDelta();
+            }
+            ReplayFrame swap = previous;
+            previous = current;
+            current = swap;
+            frames++;
+        }
+
+        // The whole replay, footer included
+        public byte[] finish() {
+            for (int i = 0; i < keyframes; i++) {
+                writeInt(keyframeOffsets[i]);
+            }
+            writeInt(keyframes);
+            writeInt(frames);
+            writeInt(REPLAY_MAGIC);
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void writeKeyframe() {
+            writeVarint(current.playerIds.length);
+            for (int p = 0; p < current.playerIds.length; p++) {
+                writeVarint(current.playerIds[p]);
+                writeVarint(current.shipCounts[p]);
+                for (int i = 0; i < current.shipCounts[p]; i++) {
+                    writeRecord(current.ships[p], i * ReplayFrame.SHIP, ReplayFrame.SHIP);
+                    writeString(current.messages[p][i]);
                 }
-                if (3 <= referee.players.get(idPlayer).shipsAlive.size())
-                {
-                	outputs[j] = this.shipMoves3.get(i);
-                	j++;
+            }
+            // records as differences with the record before them
+            for (int list = 0; list < current.lists.length; list++) {
+                int width = ReplayFrame.WIDTH[list];
+                int[] records = current.lists[list];
+                writeVarint(current.counts[list]);
+                for (int at = 0; at < current.counts[list] * width; at++) {
+                    writeSigned(records[at] - (at >= width ? records[at - width] : 0));
                 }
-    	    	try {
-					referee.apply(idPlayer, outputs);
-				} catch (WinException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (LostException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (InvalidInputException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (GameOverException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-    	    	this.score[i] = referee.eval(idPlayer);
-    	    	this.sumScore += this.score[i];
-    		}
-	    }
-	    
-	    public List<String> rotateLeft ( List<String> tab ) 
-	    {
-	    	if (2 <= tab.size())
-	    	{
-		        List<String> tabrot = new ArrayList<String>();
-		        String firstElement = tab.get(0);
-		        for (int i = 0 ; i < tab.size() - 1; i++)
-		        {
-		            tabrot.add(i, tab.get(i+1));
-		        }
-		        tabrot.add(tab.size() - 1, firstElement);
-		        return tabrot;
-	    	}
-	    	else return tab;
-	    }
-	    
-	    public String[] outputMove(int idPlayer)
-	    {
-	    	String[] outputTurn = new String[this.referee.players.get(idPlayer).shipsAlive.size()];
-	    	for (int iShipCount = 0; iShipCount < this.referee.players.get(idPlayer).shipsAlive.size(); iShipCount++)
-	    	{
-	    		try
-	    		{
-		    		if (iShipCount == 0)
-		            {
-		            	outputTurn[iShipCount] = shipMoves1.get(0);
-		            	shipMoves1 = rotateLeft(shipMoves1);
-		            	System.out.println(outputTurn[iShipCount]);
-		            }
-		    		else if (iShipCount == 1)
-		            {
-		            	outputTurn[iShipCount] = shipMoves2.get(0);
-		            	shipMoves2 = rotateLeft(shipMoves2);
-		            	System.out.println(outputTurn[iShipCount]);
-		            }
-		    		else if (iShipCount == 2)
-		            {
-		            	outputTurn[iShipCount] = shipMoves3.get(0);
-		            	shipMoves3 = rotateLeft(shipMoves3);
-		            	System.out.println(outputTurn[iShipCount]);
-		            }
-	    		}
-	    		catch (Exception e) // Gameover
-	    		{
-	    			outputTurn[iShipCount] = "WAIT GOING TO DIE";
-	            	System.out.println("WAIT GOING TO DIE");
-	    		}
-	    	}
+            }
+        }
+
+        // A delta starts with a mask of the ships that differ from ReplayFrame.predictShip, with the mask of its non-empty
+        // sections (REPLAY_SECTION_*) above, followed by the ReplayFrame.SHIP_BITS mask and the differences of each of
+        // these ships, the message last.
+        // Lists but damage are written as their removed records, the survivors that differ from ReplayFrame.predict
+        // and the appended records. Damage is written whole.
+        private void writeDelta() {
+            predicted.copyFrom(previous);
+            int sections = 0;
+            int changedShips = 0;
+            int previousShips = 0;
+            for (int p = 0; p < previous.playerIds.length; p++) {
+                previousShips += previous.shipCounts[p];
+            }
+            for (int p = 0, ship = 0; p < current.playerIds.length; p++) {
+                if (current.shipCounts[p] != previous.shipCounts[p]) {
+                    sections |= 1 << REPLAY_SECTION_SHIPS;
+                }
+                for (int i = 0; i < previous.shipCounts[p]; i++, ship++) {
+                    int at = i * ReplayFrame.SHIP;
+                    predicted.ships[p][at + 6] = current.ships[p][at + 6];
+                    predicted.predictShip(predicted.ships[p], at);
+                    shipMasks[ship] = shipMask(p, i);
+                    if (shipMasks[ship] != 0) {
+                        changedShips |= 1 << ship;
+                    }
+                }
+            }
+            for (int list = 0; list < ReplayFrame.DAMAGE; list++) {
+                int width = ReplayFrame.WIDTH[list];
+                int[] before = predicted.lists[list];
+                int[] after = current.lists[list];
+                // Survivors keep their order and new records are appended, anything else shows up as removed then added
+                int survivors = 0;
+                int changed = 0;
+                for (int i = 0; i < predicted.counts[list]; i++) {
+                    if (survivors < current.counts[list] && after[survivors * width] == before[i * width]) {
+                        predicted.predict(list, before, i * width);
+                        if (!Arrays.equals(before, i * width, (i + 1) * width, after, survivors * width, (survivors + 1) * width)) {
+                            changed++;
+                        }
+                        survivors++;
+                    }
+                }
+                this.survivors[list] = survivors;
+                this.changed[list] = changed;
+                sections |= (predicted.counts[list] > survivors ? 1 : 0) << REPLAY_SECTION_REMOVED[list];
+                sections |= (changed > 0 ? 1 : 0) << REPLAY_SECTION_CHANGED[list];
+                sections |= (current.counts[list] > survivors ? 1 : 0) << REPLAY_SECTION_ADDED[list];
+            }
+            sections |= (current.counts[ReplayFrame.DAMAGE] > 0 ? 1 : 0) << REPLAY_SECTION_DAMAGE;
+
+            writeVarint(changedShips | sections << previousShips);
+            for (int p = 0, ship = 0; p < current.playerIds.length; p++) {
+                int[] before = predicted.ships[p];
+                int[] after = current.ships[p];
+                for (int i = 0; i < previous.shipCounts[p]; i++, ship++) {
+                    int mask = shipMasks[ship];
+                    if (mask == 0) {
+                        continue;
+                    }
+                    writeVarint(mask);
+                    for (int f = 1; f < 6; f++) {
+                        if ((mask & 1 << ReplayFrame.SHIP_BITS[f]) != 0) {
+                            writeSigned(after[i * ReplayFrame.SHIP + f] - before[i * ReplayFrame.SHIP + f]);
+                        }
+                    }
+                    if ((mask & 1 << ReplayFrame.SHIP_MESSAGE_BIT) != 0) {
+                        writeString(current.messages[p][i]);
+                    }
+                }
+            }
+            if ((sections & 1 << REPLAY_SECTION_SHIPS) != 0) {
+                for (int p = 0; p < current.playerIds.length; p++) {
+                    writeVarint(current.shipCounts[p] - previous.shipCounts[p]);
+                    for (int i = previous.shipCounts[p]; i < current.shipCounts[p]; i++) {
+                        writeRecord(current.ships[p], i * ReplayFrame.SHIP, ReplayFrame.SHIP);
+                        writeString(current.messages[p][i]);
+                    }
+                }
+            }
+            for (int list = 0; list < ReplayFrame.DAMAGE; list++) {
+                int width = ReplayFrame.WIDTH[list];
+                int[] before = predicted.lists[list];
+                int[] after = current.lists[list];
+                if ((sections & 1 << REPLAY_SECTION_REMOVED[list]) != 0) {
+                    writeVarint(predicted.counts[list] - survivors[list]);
+                    int last = 0;
+                    for (int i = 0, j = 0; i < predicted.counts[list]; i++) {
+                        if (j < survivors[list] && after[j * width] == before[i * width]) {
+                            j++;
+                        } else {
+                            writeVarint(i - last);
+                            last = i;
+                        }
+                    }
+                }
+                // survivors by their index in the new list
+                if ((sections & 1 << REPLAY_SECTION_CHANGED[list]) != 0) {
+                    writeVarint(changed[list]);
+                    int last = 0;
+                    for (int i = 0, j = 0; i < predicted.counts[list] && j < survivors[list]; i++) {
+                        if (after[j * width] == before[i * width]) {
+                            if (!Arrays.equals(before, i * width, (i + 1) * width, after, j * width, (j + 1) * width)) {
+                                writeVarint(j - last);
+                                last = j;
+                                for (int f = 1; f < width; f++) {
+                                    writeSigned(after[j * width + f] - before[i * width + f]);
+                                }
+                            }
+                            j++;
+                        }
+                    }
+                }
+                // appended records as differences with the record before them, ids mostly grow by one
+                if ((sections & 1 << REPLAY_SECTION_ADDED[list]) != 0) {
+                    writeVarint(current.counts[list] - survivors[list]);
+                    for (int j = survivors[list]; j < current.counts[list]; j++) {
+                        for (int f = 0; f < width; f++) {
+                            writeSigned(after[j * width + f] - (j > 0 ? after[(j - 1) * width + f] : 0));
+                        }
+                    }
+                }
+            }
+            if ((sections & 1 << REPLAY_SECTION_DAMAGE) != 0) {
+                writeVarint(current.counts[ReplayFrame.DAMAGE]);
+                for (int i = 0; i < current.counts[ReplayFrame.DAMAGE]; i++) {
+                    writeRecord(current.lists[ReplayFrame.DAMAGE], i * ReplayFrame.WIDTH[ReplayFrame.DAMAGE], ReplayFrame.WIDTH[ReplayFrame.DAMAGE]);
+                }
+            }
+        }
+
+        private int shipMask(int p, int i) {
+            int at = i * ReplayFrame.SHIP;
+            int mask = current.ships[p][at + 6] != previous.ships[p][at + 6] ? current.ships[p][at + 6] + 1 : 0;
+            for (int f = 1; f < 6; f++) {
+                if (current.ships[p][at + f] != predicted.ships[p][at + f]) {
+                    mask |= 1 << ReplayFrame.SHIP_BITS[f];
+                }
+            }
+            if (!Objects.equals(current.messages[p][i], previous.messages[p][i])) {
+                mask |= 1 << ReplayFrame.SHIP_MESSAGE_BIT;
+            }
+            return mask;
+        }
+
+        private void writeRecord(int[] record, int at, int width) {
+            for (int f = 0; f < width; f++) {
+                writeSigned(record[at + f]);
+            }
+        }
+
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length + 1);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        private void writeSigned(int value) {
+            writeVarint(value << 1 ^ value >> 31);
+        }
+
+        private void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private void ensure(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + length));
+            }
+        }
+    }
+
+    // Reads a replay of ReplayWriter, from a memory-mapped file or any buffer. frame(i) decodes from the closest keyframe
+    // at or before i, or goes on from the last decoded frame when it is on the way.
+    public static final class ReplayReader {
+        private final ByteBuffer data;
+        private final long seed;
+        private final int shipsPerPlayer;
+        private final int mineCount;
+        private final int barrelCount;
+        private final int keyframeInterval;
+        private final int frames;
+        private final int[] keyframeOffsets;
+        private ReplayFrame frame = new ReplayFrame();
+        private ReplayFrame previous = new ReplayFrame();
+        private int frameIndex = -1; // frame decoded in frame
+        private int position; // of the record after frameIndex
+
+        public static ReplayReader open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new ReplayReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        public ReplayReader(ByteBuffer data) throws IOException {
+            this.data = data;
+            int end = data.limit();
+            if (end < 16 || data.getInt(0) != REPLAY_MAGIC || data.getInt(end - 4) != REPLAY_MAGIC) {
+                throw new IOException("Not a replay");
+            }
+            frames = data.getInt(end - 8);
+            keyframeOffsets = new int[data.getInt(end - 12)];
+            for (int i = 0; i < keyframeOffsets.length; i++) {
+                keyframeOffsets[i] = data.getInt(end - 12 - 4 * (keyframeOffsets.length - i));
+            }
+            position = 4;
+            seed = data.getLong(position);
+            position += 8;
+            shipsPerPlayer = readVarint();
+            mineCount = readVarint();
+            barrelCount = readVarint();
+            keyframeInterval = readVarint();
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int getShipsPerPlayer() {
+            return shipsPerPlayer;
+        }
+
+        public int getMineCount() {
+            return mineCount;
+        }
+
+        public int getBarrelCount() {
+            return barrelCount;
+        }
+
+        public int getFrameCount() {
+            return frames;
+        }
+
+        // The lines getFrameDataForView gave for this frame as a key frame
+        public String[] frame(int index) {
+            if (index < 0 || index >= frames) {
+                throw new IndexOutOfBoundsException("Frame " + index + " of " + frames);
+            }
+            int keyframe = index / keyframeInterval;
+            if (frameIndex > index || frameIndex < keyframe * keyframeInterval) {
+                position = keyframeOffsets[keyframe];
+                frameIndex = keyframe * keyframeInterval - 1;
+            }
+            while (frameIndex < index) {
+                ReplayFrame swap = previous;
+                previous = frame;
+                frame = swap;
+                if (readVarint() == REPLAY_KEYFRAME) {
+                    readKeyframe();
+                } else {
+                    readDelta();
+                }
+                frameIndex++;
+            }
+            return frame.toLines();
+        }
+
+        private void readKeyframe() {
+            frame.setPlayerCount(readVarint());
+            for (int p = 0; p < frame.playerIds.length; p++) {
+                frame.playerIds[p] = readVarint();
+                int ships = readVarint();
+                frame.shipCounts[p] = 0;
+                for (int i = 0; i < ships; i++) {
+                    readRecord(frame.addShip(p), i * ReplayFrame.SHIP, ReplayFrame.SHIP);
+                    frame.messages[p][i] = readString();
+                }
+            }
+            for (int list = 0; list < frame.lists.length; list++) {
+                int width = ReplayFrame.WIDTH[list];
+                int count = readVarint();
+                frame.counts[list] = 0;
+                for (int i = 0; i < count; i++) {
+                    int[] records = frame.add(list);
+                    for (int at = i * width; at < (i + 1) * width; at++) {
+                        records[at] = readSigned() + (at >= width ? records[at - width] : 0);
+                    }
+                }
+            }
+        }
+
+        private void readDelta() {
+            frame.copyFrom(previous);
+            int previousShips = 0;
+            for (int p = 0; p < previous.playerIds.length; p++) {
+                previousShips += previous.shipCounts[p];
+            }
+            int masks = readVarint();
+            int changedShips = masks & (1 << previousShips) - 1;
+            int sections = masks >>> previousShips;
+            for (int p = 0, ship = 0; p < frame.playerIds.length; p++) {
+                int[] s = frame.ships[p];
+                for (int i = 0; i < previous.shipCounts[p]; i++, ship++) {
+                    int at = i * ReplayFrame.SHIP;
+                    if ((changedShips & 1 << ship) == 0) {
+                        frame.predictShip(s, at);
+                        continue;
+                    }
+                    int mask = readVarint();
+                    if ((mask & 7) != 0) {
+                        s[at + 6] = (mask & 7) - 1;
+                    }
+                    frame.predictShip(s, at);
+                    for (int f = 1; f < 6; f++) {
+                        if ((mask & 1 << ReplayFrame.SHIP_BITS[f]) != 0) {
+                            s[at + f] += readSigned();
+                        }
+                    }
+                    if ((mask & 1 << ReplayFrame.SHIP_MESSAGE_BIT) != 0) {
+                        frame.messages[p][i] = readString();
+                    }
+                }
+            }
+            if ((sections & 1 << REPLAY_SECTION_SHIPS) != 0) {
+                for (int p = 0; p < frame.playerIds.length; p++) {
+                    int added = readVarint();
+                    for (int i = 0; i < added; i++) {
+                        int[] s = frame.addShip(p);
+                        readRecord(s, (frame.shipCounts[p] - 1) * ReplayFrame.SHIP, ReplayFrame.SHIP);
+                        frame.messages[p][frame.shipCounts[p] - 1] = readString();
+                    }
+                }
+            }
+            for (int list = 0; list < ReplayFrame.DAMAGE; list++) {
+                int width = ReplayFrame.WIDTH[list];
+                int[] records = frame.lists[list];
+                // drop the removed records, compacting the survivors
+                int removed = (sections & 1 << REPLAY_SECTION_REMOVED[list]) != 0 ? readVarint() : 0;
+                int count = frame.counts[list];
+                int next = removed > 0 ? readVarint() : count;
+                int kept = 0;
+                for (int i = 0, read = 1; i < count; i++) {
+                    if (i == next) {
+                        next = read++ < removed ? next + readVarint() : count;
+                        continue;
+                    }
+                    System.arraycopy(records, i * width, records, kept * width, width);
+                    frame.predict(list, records, kept * width);
+                    kept++;
+                }
+                frame.counts[list] = kept;
+                int changed = (sections & 1 << REPLAY_SECTION_CHANGED[list]) != 0 ? readVarint() : 0;
+                for (int c = 0, j = 0; c < changed; c++) {
+                    j += readVarint();
+                    for (int f = 1; f < width; f++) {
+                        records[j * width + f] += readSigned();
+                    }
+                }
+                int added = (sections & 1 << REPLAY_SECTION_ADDED[list]) != 0 ? readVarint() : 0;
+                for (int i = 0; i < added; i++) {
+                    records = frame.add(list);
+                    int at = (frame.counts[list] - 1) * width;
+                    for (int f = 0; f < width; f++) {
+                        records[at + f] = readSigned() + (at > 0 ? records[at - width + f] : 0);
+                    }
+                }
+            }
+            frame.counts[ReplayFrame.DAMAGE] = 0;
+            int damage = (sections & 1 << REPLAY_SECTION_DAMAGE) != 0 ? readVarint() : 0;
+            for (int i = 0; i < damage; i++) {
+                readRecord(frame.add(ReplayFrame.DAMAGE), i * ReplayFrame.WIDTH[ReplayFrame.DAMAGE], ReplayFrame.WIDTH[ReplayFrame.DAMAGE]);
+            }
+        }
+
+        private void readRecord(int[] record, int at, int width) {
+            for (int f = 0; f < width; f++) {
+                record[at + f] = readSigned();
+            }
+        }
+
+        private String readString() {
+            int length = readVarint() - 1;
+            if (length < 0) {
+                return null;
+            }
+            byte[] utf8 = new byte[length];
+            for (int i = 0; i < length; i++) {
+                utf8[i] = data.get(position++);
+            }
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        private int readSigned() {
+            int value = readVarint();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = data.get(position++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    // Parallel genetic search: each worker owns a copy of the board, a GeneticSearch with its own candidate pool,
+    // transposition table and random generator, and publishes its best plan through an atomic reference.
+    public static final class ParallelSearch {
+        // Immutable published plan: MAX_SHIPS * depth genes ship by ship, and its fitness
+        static final class Candidate {
+            final int[] genes;
+            final int score;
+
+            Candidate(int[] genes, int score) {
+                this.genes = genes;
+                this.score = score;
+            }
+        }
+
+        private final class Worker implements Callable<Void> {
+            final Referee board;
+            final Random random; // only used by the thread running this worker
+            final GeneticSearch search;
+            long deadline;
+            Solution seed;
+
+            Worker(Referee board, int idPlayer, long seed, boolean arrayEngine) {
+                this.board = board;
+                this.random = new Random(seed);
+                Solution evaluator = new Solution(board, idPlayer);
+                evaluator.table = new TranspositionTable(1 << 16);
+                if (arrayEngine) {
+                    evaluator.useArrayEngine();
+                }
+                this.search = new GeneticSearch(evaluator, new LongHashSet(1 << 12), random);
+            }
+
+            public Void call() {
+                search.newTurn(seed);
+                while (search.step(deadline)) {
+                    publish();
+                }
+                publish();
+                return null;
+            }
+
+            private void publish() {
+                int member = search.bestMember();
+                if (member == -1) {
+                    return;
+                }
+                int score = search.fitness(member);
+                Candidate current = best.get();
+                if (current != null && current.score >= score) {
+                    return;
+                }
+                Candidate candidate = new Candidate(search.copyGenes(member), score);
+                while (!best.compareAndSet(current, candidate)) {
+                    current = best.get();
+                    if (current != null && current.score >= score) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private final List<Worker> workers = new ArrayList<>();
+        private final ExecutorService executor;
+        private final AtomicReference<Candidate> best = new AtomicReference<>();
+
+        public ParallelSearch(Referee board, int idPlayer, int threads) {
+            this(board, idPlayer, threads, false);
+        }
+
+        // With arrayEngine, the workers play their rollouts on an ArrayReferee (Solution.useArrayEngine)
+        public ParallelSearch(Referee board, int idPlayer, int threads, boolean arrayEngine) {
+            Random seeds = new Random();
+            for (int i = 0; i < threads; i++) {
+                workers.add(new Worker(board.snapshot(), idPlayer, seeds.nextLong(), arrayEngine));
+            }
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "search");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        // Searches from board and the plan of seed until the deadline (System.nanoTime)
+        public void search(Referee board, Solution seed, long deadline) throws InterruptedException {
+            best.set(null);
+            for (Worker worker : workers) {
+                worker.board.restoreFrom(board);
+                // Different random plans in each worker
+                worker.board.random.setSeed(worker.random.nextLong());
+                worker.seed = seed;
+                worker.deadline = deadline;
+            }
+            executor.invokeAll(workers);
+        }
+
+        // Copies the best published plan to target, returns false when nothing was evaluated
+        public boolean best(Solution target) {
+            Candidate candidate = best.get();
+            if (candidate == null) {
+                return false;
+            }
+            for (int ship = 0; ship < MAX_SHIPS; ship++) {
+                System.arraycopy(candidate.genes, ship * target.depth, GeneticSearch.moves(target, ship), 0, target.depth);
+            }
+            target.sumScore = candidate.score;
+            return true;
+        }
+
+        // GeneticSearch.slowestCheck of the slowest worker
+        public long slowestCheck() {
+            long slowest = 0;
+            for (Worker worker : workers) {
+                slowest = Math.max(slowest, worker.search.slowestCheck);
+            }
+            return slowest;
+        }
+
+        public int evaluations() {
+            int evaluations = 0;
+            for (Worker worker : workers) {
+                evaluations += worker.search.evaluations;
+            }
+            return evaluations;
+        }
+
+        public void shutdown() {
+            executor.shutdownNow();
+        }
+
+        // Rollouts per second from 1 to N threads on a random board: ParallelSearch [maxThreads] [millis]
+        public static void main(String... args) throws Exception {
+            int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+            long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+            Referee board = new Referee();
+            Properties prop = new Properties();
+            prop.setProperty("seed", "1");
+            board.initEmptyReferee(2, prop);
+            Random random = new Random(1);
+            int id = 0;
+            for (int i = 0; i < MAX_SHIPS; i++) {
+                int x = 2 + i * 7 + random.nextInt(4), y = 2 + random.nextInt(7), orientation = random.nextInt(6);
+                board.updateEntity(id++, "SHIP", x, y, orientation, 1, 100, 0);
+                board.updateEntity(id++, "SHIP", x, MAP_HEIGHT - 1 - y, (6 - orientation) % 6, 1, 100, 1);
+            }
+            for (int i = 0; i < MAX_RUM_BARRELS; i++) {
+                board.updateEntity(id++, "BARREL", 1 + random.nextInt(MAP_WIDTH - 2), 1 + random.nextInt(MAP_HEIGHT - 2), 15, 0, 0, 0);
+            }
+            for (int i = 0; i < MAX_MINES; i++) {
+                board.updateEntity(id++, "MINE", 1 + random.nextInt(MAP_WIDTH - 2), 1 + random.nextInt(MAP_HEIGHT - 2), 0, 0, 0, 0);
+            }
+            Solution seed = new Solution(board, 1);
+            seed.randomize();
+
+            ParallelSearch warmUp = new ParallelSearch(board, 1, 1); // let the JIT compile the simulation first
+            warmUp.search(board, seed, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+            warmUp.shutdown();
+            double single = 0;
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                ParallelSearch search = new ParallelSearch(board, 1, threads);
+                search.search(board, seed, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis) / 4); // warm up
+                long start = System.nanoTime();
+                search.search(board, seed, start + TimeUnit.MILLISECONDS.toNanos(millis));
+                double rate = search.evaluations() * 1e9 / (System.nanoTime() - start);
+                search.shutdown();
+                if (threads == 1) {
+                    single = rate;
+                }
+                System.out.println(String.format("%d threads: %.0f rollouts/s, speedup %.2f", threads, rate, rate / single));
+            }
+        }
+    }
+
+    // Turn clock on System.nanoTime for a server that ignores answers after the time limit. The watchdog answers at half
+    // the minimum margin before the limit, a tenth of it (at most MAX_MIN_MARGIN). The search stops at least the minimum
+    // margin before the limit, and early enough for the longest gap seen between two deadline checks of the search (a
+    // slow evaluation, a GC pause, a preemption) plus the time taken to answer to end before the watchdog. Both times
+    // decay by an eighth per turn.
+    public static final class Deadline {
+        private static final long MAX_MIN_MARGIN = TimeUnit.MILLISECONDS.toNanos(50);
+
+        private long start;
+        private long limit;
+        private long minMargin;
+        private long slowestCheck;
+        private long answerTime;
+        private long searchEnd;
+
+        // The turn started at start (System.nanoTime), when its input arrived, and must be answered within limitMillis
+        public void start(long start, long limitMillis) {
+            this.start = start;
+            this.limit = TimeUnit.MILLISECONDS.toNanos(limitMillis);
+            this.minMargin = Math.min(limit / 10, MAX_MIN_MARGIN);
+        }
+
+        public long margin() {
+            return Math.min(Math.max(minMargin, minMargin / 2 + slowestCheck + answerTime), limit / 2);
+        }
+
+        public long searchDeadline() {
+            return start + limit - margin();
+        }
+
+        public long hardDeadline() {
+            return start + limit - minMargin / 2;
+        }
+
+        // The search stopped; slowestCheck is the longest time it went without checking the deadline
+        public void searched(long slowestCheck) {
+            searchEnd = System.nanoTime();
+            this.slowestCheck = Math.max(slowestCheck, this.slowestCheck - this.slowestCheck / 8);
+        }
+
+        public void answered() {
+            long time = System.nanoTime() - searchEnd;
+            answerTime = Math.max(time, answerTime - answerTime / 8);
+        }
+    }
+
+    // Answers each turn exactly once on out: the search thread through answer, or a daemon thread with the last
+    // published move if the search has not answered at the hard deadline of the turn
+    public static final class Watchdog {
+        // Output lines of a turn and the encoded actions they stand for
+        public static final class Move {
+            final String[] lines;
+            final int[] actions;
+
+            public Move(String[] lines, int[] actions) {
+                this.lines = lines;
+                this.actions = actions;
+            }
+        }
+
+        private static final class Turn {
+            final long deadline;
+            final AtomicReference<Move> answer = new AtomicReference<>(); // the move printed, set once
+            volatile Move fallback;
+
+            Turn(long deadline, Move fallback) {
+                this.deadline = deadline;
+                this.fallback = fallback;
+            }
+        }
+
+        private final PrintStream out;
+        private final Thread thread;
+        private volatile Turn turn;
+        private volatile int lateTurns; // only written by the watchdog thread
+
+        public Watchdog(PrintStream out) {
+            this.out = out;
+            this.thread = new Thread(this::run, "watchdog");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        }
+
+        // Starts a turn: fallback is printed at deadline (System.nanoTime) unless answer comes first
+        public void arm(long deadline, Move fallback) {
+            turn = new Turn(deadline, fallback);
+            LockSupport.unpark(thread);
+        }
+
+        // Replaces the fallback of the turn
+        public void publish(Move move) {
+            turn.fallback = move;
+        }
+
+        // Prints move unless the watchdog already answered the turn, returns the move printed
+        public Move answer(Move move) {
+            Turn current = turn;
+            if (current.answer.compareAndSet(null, move)) {
+                print(move);
+                return move;
+            }
+            return current.answer.get();
+        }
+
+        // Turns answered by the watchdog
+        public int getLateTurns() {
+            return lateTurns;
+        }
+
+        private void print(Move move) {
+            StringBuilder lines = new StringBuilder();
+            for (String line : move.lines) {
+                lines.append(line).append('\n');
+            }
+            out.print(lines);
+            out.flush();
+        }
+
+        private void run() {
+            while (true) {
+                Turn current = turn;
+                if (current == null || current.answer.get() != null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                long wait = current.deadline - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                    continue;
+                }
+                Move fallback = current.fallback;
+                if (current.answer.compareAndSet(null, fallback)) {
+                    print(fallback);
+                    lateTurns++;
+                }
+            }
+        }
+    }
+}
 
-	    	return outputTurn;
-	    }
-	    
-	    public String concatenate()
-	    {
-	    	String concatenate = "";
 
-			if (1 <= this.shipCount)
+class Player implements Serializable {
+	private final int idPlayer = 1;
+	private final long firstTurnMillis; // time limit of the first turn
+	private final long turnMillis; // time limit of the other turns
+	private final int searchThreads;
+	private final boolean arrayEngine = Boolean.getBoolean("arrayEngine"); // -DarrayEngine=true plays the rollouts on ArrayReferee
+	private final Referee.Deadline clock = new Referee.Deadline();
+	private final Referee.Watchdog watchdog; // prints the answers, null when play only returns them
+
+	private final Referee currentBoard;
+	private int gameTurn = 1;
+	private int saveCountShips = 99; // save the last number of ships
+	private Referee.Solution bestSolution = null;
+	private Referee.Solution fallbackSolution = null; // best plan of the search so far, for the watchdog
+	private Referee.GeneticSearch search = null;
+	private Referee.ParallelSearch parallelSearch = null;
+	private Referee searchBoard = null;
+	private final Referee.TranspositionTable table = new Referee.TranspositionTable(1 << 16);
+	private final Referee.LongHashSet outputTried = new Referee.LongHashSet(1 << 12);
+	private int[] entities = new int[8 * 64]; // id, type, x, y, arg1..arg4 of each entity of the turn
+	private int[] shipIds = new int[64];
+
+	public Player(long firstTurnMillis, long turnMillis, int searchThreads) throws IOException, InvalidFormatException
+	{
+		this(firstTurnMillis, turnMillis, searchThreads, null);
+	}
+
+	// With out, play also prints its answers there, or a watchdog prints the best move so far when the turn runs late
+	public Player(long firstTurnMillis, long turnMillis, int searchThreads, PrintStream out) throws IOException, InvalidFormatException
+	{
+		this.firstTurnMillis = firstTurnMillis;
+		this.turnMillis = turnMillis;
+		this.searchThreads = searchThreads;
+		this.watchdog = out != null ? new Referee.Watchdog(out) : null;
+		// Initialization of our simulation
+		currentBoard = new Referee(System.in, System.out, System.err);
+		// Initialize a random game
+		Properties prop = currentBoard.getConfiguration();
+		currentBoard.initEmptyReferee(2, prop);
+	}
+
+	// Reads the inputs of one turn and returns the action of each ship
+	public String[] play(Referee.InputReader in) throws IOException, InvalidFormatException
+	{
+		// Update new inputs
+		int myShipCount = in.nextInt(); // the number of remaining ships
+		// the clock of the server runs from here
+		long started = System.nanoTime();
+		clock.start(started, gameTurn == 1 ? firstTurnMillis : turnMillis);
+		if (watchdog != null) watchdog.arm(clock.hardDeadline(), waitMove(myShipCount));
+		if (Referee.Profile.ENABLED) Referee.Profile.startTurn();
+		Referee.TurnEvent turnEvent = new Referee.TurnEvent();
+		turnEvent.begin();
+		int entityCount = in.nextInt(); // the number of entities (e.g. ships, mines or cannonballs)
+		if (entities.length < 8 * entityCount)
+		{
+			entities = new int[8 * entityCount];
+			allocated("Player.entities", 4L * entities.length);
+		}
+		for (int i = 0; i < 8 * entityCount; i += 8) {
+			entities[i] = in.nextInt(); // entityId
+			entities[i + 1] = in.nextEntityType();
+			for (int j = 2; j < 8; j++) entities[i + j] = in.nextInt(); // x, y, arg1, arg2, arg3, arg4
+		}
+		int shipCount = 0; // (remove opponent ships that is destroyed because of unknown mines)
+		for (int i = 0; i < 8 * entityCount; i += 8) {
+			if (entities[i + 1] == Referee.InputReader.SHIP) // opponent ship
 			{
-				for (int iDepth = 0; iDepth < this.shipMoves1.size() ; iDepth++)
+				if (shipCount == shipIds.length)
 				{
-					concatenate += this.shipMoves1.get(iDepth) + ";";
+					shipIds = Arrays.copyOf(shipIds, 2 * shipCount);
+					allocated("Player.shipIds", 4L * shipIds.length);
 				}
+				shipIds[shipCount++] = entities[i];
 			}
-			if (2 <= this.shipCount)
+			// Create + Update current entity
+			currentBoard.updateEntity(entities[i], entities[i + 1], entities[i + 2], entities[i + 3], entities[i + 4], entities[i + 5], entities[i + 6], entities[i + 7]);
+		}
+
+		if (saveCountShips != shipCount) { // ship lost
+			// check if the simulation removed the ship, it can explode with mines that were never seen
+			currentBoard.checkShipRemoved(shipIds, shipCount);
+			saveCountShips = shipCount;
+		}
+		/*
+		System.err.println("After update vars");
+		currentBoard.displayEntities();
+		*/
+
+		long parsed = System.nanoTime();
+		long copied = parsed;
+
+		// Simulation
+		try {
+
+			if (searchBoard == null) searchBoard = currentBoard.snapshot();
+			else searchBoard.restoreFrom(currentBoard);
+			copied = System.nanoTime();
+			if (gameTurn == 1)
 			{
-				for (int iDepth = 0; iDepth < this.shipMoves2.size() ; iDepth++)
+				bestSolution = new Referee.Solution(searchBoard, idPlayer);
+				bestSolution.randomize();
+				bestSolution.table = table;
+				Referee.Solution evaluator = new Referee.Solution(searchBoard, idPlayer);
+				evaluator.table = table;
+				if (arrayEngine)
 				{
-					concatenate += this.shipMoves2.get(iDepth) + ";";
+					bestSolution.useArrayEngine();
+					evaluator.useArrayEngine();
 				}
+				search = new Referee.GeneticSearch(evaluator, outputTried, new Random());
+				fallbackSolution = new Referee.Solution(searchBoard, idPlayer);
+				if (searchThreads > 1) parallelSearch = new Referee.ParallelSearch(currentBoard, idPlayer, searchThreads, arrayEngine);
 			}
-			if (3 <= this.shipCount)
-			{				
-				for (int iDepth = 0; iDepth < this.shipMoves3.size() ; iDepth++)
+			else bestSolution.referee = searchBoard;
+			// bestSolution.heuristicSimulation(bestSolution.depth, searchBoard);
+			bestSolution.eval(idPlayer);
+			bestSolution.referee = currentBoard;
+			if (watchdog != null) watchdog.publish(firstMove(bestSolution));
+		}
+		catch (Exception e)
+		{
+			System.err.println("Error heuristic: " + e);
+		}
+
+		// genetic search (eval undoes its moves, so searchBoard stays on the current turn)
+		try
+		{
+			long deadline = clock.searchDeadline();
+			if (parallelSearch != null)
+			{
+				parallelSearch.search(currentBoard, bestSolution, deadline);
+				parallelSearch.best(bestSolution);
+			}
+			else
+			{
+				search.newTurn(bestSolution);
+				if (watchdog != null) fallbackSolution.copyFrom(bestSolution);
+				while (search.step(deadline))
 				{
-					concatenate += this.shipMoves3.get(iDepth) + ";";
+					if (watchdog != null && search.best(fallbackSolution)) watchdog.publish(firstMove(fallbackSolution));
 				}
+				search.best(bestSolution);
 			}
-			return concatenate;
-	    }
-	    
-	    public void display()
-	    {
-    	    System.err.println("Printing moves 1");
-    	    for (String val : this.shipMoves1)
-    	    {
-    	    	System.err.println(val);
-    	    }
-    	    System.err.println("Printing moves 2");
-    	    for (String val : this.shipMoves2)
-    	    {
-    	    	System.err.println(val);
-    	    }
-    	    System.err.println("Printing moves 3");
-    	    for (String val : this.shipMoves3)
-    	    {
-    	    	System.err.println(val);
-    	    }
-    	    System.err.println("sumScore: " + this.sumScore);
-	    }
+		}
+		catch (Exception e)
+		{
+			System.err.println("Error genetic search: " + e);
+		}
+		clock.searched(parallelSearch != null ? parallelSearch.slowestCheck() : search.slowestCheck);
+		long searched = System.nanoTime();
+		if (parallelSearch != null) System.err.println("threads: " + searchThreads + " evaluations: " + parallelSearch.evaluations() + " margin: " + clock.margin() / 1000 + " us");
+		else System.err.println("generations: " + search.generations + " evaluations: " + search.evaluations + " margin: " + clock.margin() / 1000 + " us");
+		if (Referee.Profile.ENABLED) System.err.println(Referee.Profile.line());
+
+		//bestSolution.display();
+
+		// output bestSolution
+		int[] outputTurn = bestSolution.nextMove(idPlayer);
+		String[] output = bestSolution.format(outputTurn);
+		if (watchdog != null)
+		{
+			Referee.Watchdog.Move answered = watchdog.answer(new Referee.Watchdog.Move(output, outputTurn));
+			if (answered.actions != outputTurn) // too late, the watchdog answered: play what it printed
+			{
+				System.err.println("late turn " + gameTurn + ", watchdog answers: " + watchdog.getLateTurns());
+				outputTurn = answered.actions;
+				output = answered.lines;
+			}
+		}
+		clock.answered();
+
+		try
+		{
+			currentBoard.apply(idPlayer, outputTurn);
+		}
+		catch (Exception e)
+		{
+			System.err.println(e);
+		}
+		/*
+		System.err.println("After update game");
+		currentBoard.displayEntities();
+		*/
+		if (turnEvent.shouldCommit())
+		{
+			turnEvent.turn = gameTurn;
+			turnEvent.parse = parsed - started;
+			turnEvent.copy = copied - parsed;
+			turnEvent.search = searched - copied;
+			turnEvent.output = System.nanoTime() - searched;
+			turnEvent.evaluations = getEvaluations();
+			turnEvent.commit();
+		}
+		gameTurn++;
+		return output;
 	}
-}
 
+	// The first move of the plan of solution, for the watchdog
+	private Referee.Watchdog.Move firstMove(Referee.Solution solution)
+	{
+		int[] actions = solution.firstMove(idPlayer);
+		return new Referee.Watchdog.Move(solution.format(actions), actions);
+	}
 
-class Player implements Serializable {
+	// Every ship waits, the answer before anything is searched
+	private static Referee.Watchdog.Move waitMove(int shipCount)
+	{
+		String[] lines = new String[shipCount];
+		Arrays.fill(lines, Referee.Command.WAIT.name());
+		return new Referee.Watchdog.Move(lines, new int[shipCount]);
+	}
 
-    public static void main(String args[]) {
-        Scanner in = new Scanner(System.in);
-        boolean DEBUG_MODE = false;
-        // Initialization of our simulation
-        InputStream is = System.in;
-        PrintStream out= System.out;
-        PrintStream err= System.err;
-       	try {
-			Referee currentBoard = new Referee(is, out, err);
-			// Initialize a random game
-            Properties prop = currentBoard.getConfiguration();
-            currentBoard.initEmptyReferee(2, prop);
-            int gameTurn = 1;
-            int idPlayer = 1;
-            int depth = 4;
-            
-            // game loop
-			int saveCountShips = 99; // save the last number of ships
-			
-            Referee.Solution bestSolution = null;
-            while (gameTurn < 401) {
-                long startTime = System.currentTimeMillis();
-                // Update new inputs
-                int myShipCount = in.nextInt(); // the number of remaining ships
-                int entityCount = in.nextInt(); // the number of entities (e.g. ships, mines or cannonballs)
-    			List<String> ships = new ArrayList(); // (remove opponent ships that is destroyed because of unknown mines)
-                for (int i = 0; i < entityCount; i++) {
-                    int entityId = in.nextInt();
-                    String entityType = in.next();
-                    int x = in.nextInt();
-                    int y = in.nextInt();
-                    int arg1 = in.nextInt();
-                    int arg2 = in.nextInt();
-                    int arg3 = in.nextInt();
-                    int arg4 = in.nextInt();
-					if (entityType.equals("SHIP")) // opponent ship
-					{
-						ships.add(entityId + ";" + entityType + ";" + x + ";" + y + ";" + arg1 + ";" + arg2 + ";" + arg3 + ";" + arg4);
-					}
-                    // Create + Update current entity
-                    currentBoard.updateEntity(entityId, entityType, x, y, arg1, arg2, arg3, arg4);
-                }
-				
-				if (saveCountShips != ships.size()) { // ship lost
-					// check if the simulation removed the ship, it can explode with mines that were never seen
-					currentBoard.checkShipRemoved(ships);
-					saveCountShips = ships.size();
-				}
-				/*
-				System.err.println("After update vars");
-				currentBoard.displayEntities();
-				*/
-				
-				// Simulation
-				try {
-
-					Referee saveBoard1 = (Referee)(ObjectCloner.deepCopy(currentBoard));
-					if (gameTurn == 1)
-					{
-						bestSolution = new Referee.Solution(saveBoard1, idPlayer);
-						bestSolution.randomize();
-					}
-					else bestSolution.referee = saveBoard1;
-					// bestSolution.heuristicSimulation(bestSolution.depth, saveBoard1);
-					bestSolution.eval(idPlayer);
-					bestSolution.referee = currentBoard;
-				}
-				catch (Exception e)
-				{
-					System.err.println("Error heuristic: " + e);
-				}
+	private static void allocated(String site, long bytes)
+	{
+		Referee.AllocationEvent allocation = new Referee.AllocationEvent();
+		if (allocation.shouldCommit())
+		{
+			allocation.site = site;
+			allocation.objects = 1;
+			allocation.bytes = bytes;
+			allocation.commit();
+		}
+	}
 
-				// mutate process
-				List<String> outputTried = new ArrayList<String>();
-                long endTime = System.currentTimeMillis();;
-                while ((endTime - startTime) < 950 && gameTurn == 1 || gameTurn != 1 && (endTime - startTime) < 40)
-	            {
-                	Referee saveBoard2 = null; Referee.Solution solution = null;
-					try {
-						// mutate
-						saveBoard2 = (Referee) ObjectCloner.deepCopy(currentBoard);
-						solution = (Referee.Solution) ObjectCloner.deepCopy(bestSolution);
-					}
-					catch (Exception e)
-					{
-						System.err.println("Error copy mutate: " + e);
-					}
-					String concatenate = "";
-					do
-					{
-						if ((endTime - startTime) > 950 && gameTurn == 1 || gameTurn != 1 && (endTime - startTime) > 40) break;
-						solution.mutate();
-						concatenate = solution.concatenate();
-						endTime = System.currentTimeMillis();
-					} while (outputTried.contains(concatenate));
-					if ((endTime - startTime) > 950 && gameTurn == 1 || gameTurn != 1 && (endTime - startTime) > 40) break;
-					if (!outputTried.contains(concatenate))
-					{
-						try
-						{
-							solution.eval(idPlayer);
-							if (bestSolution.sumScore < solution.sumScore)
-							{
-								bestSolution = solution;
-								bestSolution.referee = currentBoard;
-							}
-						}
-						catch (Exception e)
-						{
-							System.err.println("Error eval mutate apply: " + e);
-						}
-
-						outputTried.add(concatenate);
-					}
-					endTime = System.currentTimeMillis();
-	            }
-	           
-	            //bestSolution.display();
-	            
-				// output bestSolution
-				String[] outputTurn = bestSolution.outputMove(idPlayer);
-				
-		    	try
-		    	{
-			    	currentBoard.apply(idPlayer, outputTurn);
-		    	}
-		    	catch (Exception e)
-		    	{
-		    		System.err.println(e);
-		    	}
-		    	/*
-				System.err.println("After update game");
-				currentBoard.displayEntities();
-				*/
-            	gameTurn++;
-            }
-		} 
-       	catch (IOException e)
-       	{
+	public int getGameTurn()
+	{
+		return gameTurn;
+	}
+
+	// Evaluations of the last search
+	public int getEvaluations()
+	{
+		return parallelSearch != null ? parallelSearch.evaluations() : search.evaluations;
+	}
+
+	public void close()
+	{
+		if (parallelSearch != null) parallelSearch.shutdown();
+	}
+
+	public static void main(String args[]) {
+		Referee.InputReader in = new Referee.InputReader(System.in);
+		try {
+			// time limits of the server; -DsearchThreads=N searches on N cores, -DarrayEngine=true rolls out on ArrayReferee
+			Player player = new Player(1000, 50, Integer.getInteger("searchThreads", 1), System.out);
+			// game loop, play prints the answers
+			while (player.getGameTurn() < 401) {
+				player.play(in);
+			}
+		}
+		catch (IOException e)
+		{
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-       	catch (InvalidFormatException  e)
-       	{
-       		e.printStackTrace();
-       	}
+		catch (InvalidFormatException  e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
+
+// Headless self-play: plays seeded games between two bots on a ForkJoin pool, driving initReferee, getInputForPlayer,
+// handlePlayerOutput and updateGame like the game server. Sides alternate with the game index.
+class Arena {
+    // A new bot per game, play receives the lines of getInputForPlayer and returns one action per ship
+    public interface Bot {
+        String[] play(String[] input) throws Exception;
+
+        // Called once the game is over
+        default void close() {
+        }
+    }
+
+    // A bot running in its own process: play writes the input lines to its stdin and waits for its stdout lines with
+    // the deadline of the game server, 1000 ms on the first turn then getMillisTimeForRound. A late bot is killed.
+    public static final class ProcessBot implements Bot {
+        private static final String EXITED = new String("EXITED"); // compared by identity
+
+        private final Process process;
+        private final Writer stdin;
+        private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        private final long firstTurnMillis;
+        private final long turnMillis;
+        private int turn;
+
+        public ProcessBot(List<String> command, long firstTurnMillis, long turnMillis) throws IOException {
+            this.firstTurnMillis = firstTurnMillis;
+            this.turnMillis = turnMillis;
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+            BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            // Process pipes cannot be polled with a timeout, so a thread blocks on stdout and the turn waits on the queue
+            startThread(() -> {
+                try {
+                    for (String line; (line = stdout.readLine()) != null;) {
+                        lines.add(line);
+                    }
+                } catch (IOException e) {
+                    // the process was killed
+                }
+                lines.add(EXITED);
+            });
+        }
+
+        public String[] play(String[] input) throws IOException, InterruptedException, TimeoutException {
+            long millis = turn++ == 0 ? firstTurnMillis : turnMillis;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            for (String line : input) {
+                stdin.write(line);
+                stdin.write('\n');
+            }
+            stdin.flush();
+            String[] output = new String[Integer.parseInt(input[0])];
+            for (int i = 0; i < output.length; i++) {
+                String line = lines.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (line == null) {
+                    close();
+                    throw new TimeoutException("no answer after " + millis + " ms");
+                }
+                if (line == EXITED) {
+                    throw new IOException("bot exited with " + process.waitFor());
+                }
+                output[i] = line;
+            }
+            return output;
+        }
+
+        public void close() {
+            process.destroyForcibly();
+        }
+
+        // Two bot commands against each other: ProcessBot "bot command" "opponent command" [games] [concurrency] [firstSeed]
+        public static void main(String... args) throws Exception {
+            List<String> command = Arrays.asList(args[0].trim().split("\\s+"));
+            List<String> opponentCommand = Arrays.asList(args[1].trim().split("\\s+"));
+            int games = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+            int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            long firstSeed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+            long turnMillis = new Referee(System.in, System.out, System.err).getMillisTimeForRound();
+            Arena arena = new Arena(() -> start(command, turnMillis), () -> start(opponentCommand, turnMillis), new Properties());
+            long start = System.currentTimeMillis();
+            Stats stats = arena.runConcurrent(firstSeed, games, concurrency);
+            System.out.println(stats);
+            System.out.println("bot latency: " + arena.latencies[0]);
+            System.out.println("opponent latency: " + arena.latencies[1]);
+            System.out.println(String.format("%.1f games/s", stats.games * 1000.0 / Math.max(1, System.currentTimeMillis() - start)));
+        }
+
+        private static ProcessBot start(List<String> command, long turnMillis) {
+            try {
+                return new ProcessBot(command, FIRST_TURN_MILLIS, turnMillis);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Generalized SPRT of H0: elo = elo0 against H1: elo = elo1 on the pentanomial results of game pairs, with the normal
+    // approximation of the log-likelihood ratio: LLR = N (s1 - s0) (2 mean - s0 - s1) / (2 variance) on pair scores.
+    public static final class Sprt {
+        private static final int MIN_PAIRS = 20; // the variance of fewer pairs is too noisy to stop on
+
+        private final double elo0;
+        private final double elo1;
+        private final double lower; // accept H0 below
+        private final double upper; // accept H1 above
+        private final long[] pairs = new long[5]; // pairs of 0, 0.5, 1, 1.5 and 2 points for the bot
+
+        public Sprt(double elo0, double elo1, double alpha, double beta) {
+            this.elo0 = elo0;
+            this.elo1 = elo1;
+            this.lower = Math.log(beta / (1 - alpha));
+            this.upper = Math.log((1 - beta) / alpha);
+        }
+
+        public synchronized void add(GameResult first, GameResult second) {
+            pairs[halfPoints(first) + halfPoints(second)]++;
+        }
+
+        private static int halfPoints(GameResult result) {
+            return result.score > result.opponentScore ? 2 : result.score == result.opponentScore ? 1 : 0;
+        }
+
+        public synchronized long pairs() {
+            long count = 0;
+            for (long n : pairs) {
+                count += n;
+            }
+            return count;
+        }
+
+        // Mean score of a game for the bot
+        public synchronized double mean() {
+            long count = pairs();
+            double sum = 0;
+            for (int i = 0; i < pairs.length; i++) {
+                sum += pairs[i] * (i / 4.0);
+            }
+            return count == 0 ? 0.5 : sum / count;
+        }
+
+        // Variance of the mean score of a pair
+        private double variance() {
+            long count = pairs();
+            double mean = mean();
+            double sum = 0;
+            for (int i = 0; i < pairs.length; i++) {
+                sum += pairs[i] * (i / 4.0 - mean) * (i / 4.0 - mean);
+            }
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public synchronized double llr() {
+            double variance = variance();
+            if (variance == 0) {
+                return 0;
+            }
+            double s0 = score(elo0);
+            double s1 = score(elo1);
+            return pairs() * (s1 - s0) * (2 * mean() - s0 - s1) / (2 * variance);
+        }
+
+        // 1 when H1 is accepted, -1 when H0 is accepted, 0 while more pairs are needed
+        public synchronized int decision() {
+            if (pairs() < MIN_PAIRS) {
+                return 0;
+            }
+            double llr = llr();
+            return llr >= upper ? 1 : llr <= lower ? -1 : 0;
+        }
+
+        public synchronized double elo() {
+            return elo(mean());
+        }
+
+        // Half width of the 95% interval of elo
+        public synchronized double eloError() {
+            long count = pairs();
+            if (count == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double error = 1.96 * Math.sqrt(variance() / count);
+            return (elo(Math.min(mean() + error, 1)) - elo(Math.max(mean() - error, 0))) / 2;
+        }
+
+        private static double score(double elo) {
+            return 1 / (1 + Math.pow(10, -elo / 400));
+        }
+
+        private static double elo(double score) {
+            score = Math.max(0.001, Math.min(0.999, score));
+            return -400 * Math.log10(1 / score - 1);
+        }
+
+        public synchronized String toString() {
+            return String.format("pairs %d %s, elo %.1f +- %.1f, LLR %.2f [%.2f, %.2f] %s", pairs(), Arrays.toString(pairs), elo(),
+                    eloError(), llr(), lower, upper, decision() > 0 ? "H1 accepted" : decision() < 0 ? "H0 accepted" : "undecided");
+        }
+
+        // Player with two search budgets: Sprt [botMillis] [opponentMillis] [elo0] [elo1] [maxPairs] [concurrency]
+        public static void main(String... args) throws Exception {
+            long botMillis = args.length > 0 ? Long.parseLong(args[0]) : 10;
+            long opponentMillis = args.length > 1 ? Long.parseLong(args[1]) : 2;
+            double elo0 = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+            double elo1 = args.length > 3 ? Double.parseDouble(args[3]) : 20;
+            int maxPairs = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+            int concurrency = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+            if (!Boolean.getBoolean("arena.verbose")) {
+                System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+            }
+            Arena arena = new Arena(() -> player(botMillis, botMillis), () -> player(opponentMillis, opponentMillis), new Properties());
+            Sprt sprt = arena.runSprt(new Sprt(elo0, elo1, 0.05, 0.05), 1, maxPairs, concurrency);
+            System.out.println(sprt);
+        }
+    }
+
+    // Turn response times, in 0.1 ms buckets up to 2 s
+    public static final class Latencies {
+        private static final int BUCKETS = 20000;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+
+        public void add(long nanos) {
+            counts.incrementAndGet((int) Math.min(BUCKETS - 1, nanos / 100_000));
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        // Upper bound in milliseconds of the fraction p of the turns, 0 when nothing was recorded
+        public double percentile(double p) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += counts.get(i);
+            }
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min((i + 1) / 10.0, max.get() / 1e6);
+                }
+            }
+            return 0;
+        }
+
+        public String toString() {
+            return String.format("p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms", percentile(0.5), percentile(0.9),
+                    percentile(0.99), percentile(0.999), max.get() / 1e6);
+        }
+    }
+
+    public static final class GameResult {
+        public final long seed;
+        public final int score; // rum of the bot, whichever side it played
+        public final int opponentScore;
+        public final int rounds;
+        public final String error; // first bot failure of the game, or null
+
+        GameResult(long seed, int score, int opponentScore, int rounds, String error) {
+            this.seed = seed;
+            this.score = score;
+            this.opponentScore = opponentScore;
+            this.rounds = rounds;
+            this.error = error;
+        }
+    }
+
+    public static final class Stats {
+        public int games;
+        public int wins;
+        public int draws;
+        public int losses;
+        public int errors;
+        public long score;
+        public long opponentScore;
+        public long rounds;
+
+        void add(GameResult result) {
+            games++;
+            if (result.score > result.opponentScore) {
+                wins++;
+            } else if (result.score == result.opponentScore) {
+                draws++;
+            } else {
+                losses++;
+            }
+            if (result.error != null) {
+                errors++;
+            }
+            score += result.score;
+            opponentScore += result.opponentScore;
+            rounds += result.rounds;
+        }
+
+        public String toString() {
+            return String.format("games %d: %d wins %d draws %d losses (%.1f%%), score %.1f vs %.1f, %.1f rounds, %d errors", games, wins,
+                    draws, losses, 100.0 * (wins + 0.5 * draws) / Math.max(1, games), (double) score / Math.max(1, games),
+                    (double) opponentScore / Math.max(1, games), (double) rounds / Math.max(1, games), errors);
+        }
+    }
+
+    static final long FIRST_TURN_MILLIS = 1000;
+    static final int REPLAY_KEYFRAME_INTERVAL = 50;
+
+    private final Supplier<Bot> bot;
+    private final Supplier<Bot> opponent;
+    private final Properties config; // shipsPerPlayer, mineCount, barrelCount, random when missing
+
+    public Arena(Supplier<Bot> bot, Supplier<Bot> opponent, Properties config) {
+        this.bot = bot;
+        this.opponent = opponent;
+        this.config = config;
+    }
+
+    final Latencies[] latencies = { new Latencies(), new Latencies() }; // of the bot and of the opponent
+    private Path replays; // directory of the game replays, none when null
+
+    // Writes the binary replay of every game to directory, as <seed>.replay or <seed>-swapped.replay
+    public void recordReplays(Path directory) {
+        this.replays = directory;
+    }
+
+    // Plays the games of seeds firstSeed .. firstSeed + games - 1 on threads cores
+    public Stats run(long firstSeed, int games, int threads) throws InterruptedException, ExecutionException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<GameResult> results = pool.submit(() -> LongStream.range(firstSeed, firstSeed + games).parallel().mapToObj(this::play)
+                    .collect(Collectors.toList())).get();
+            Stats stats = new Stats();
+            for (GameResult result : results) {
+                stats.add(result);
+            }
+            return stats;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Plays the games with at most concurrency of them at the same time, on virtual threads when the JVM has them: the
+    // games of external bots mostly wait for the processes
+    public Stats runConcurrent(long firstSeed, int games, int concurrency) throws InterruptedException, ExecutionException {
+        ExecutorService executor = newVirtualThreadExecutor(concurrency);
+        Semaphore running = new Semaphore(concurrency);
+        try {
+            List<Future<GameResult>> results = new ArrayList<>();
+            for (long seed = firstSeed; seed < firstSeed + games; seed++) {
+                long gameSeed = seed;
+                results.add(executor.submit(() -> {
+                    running.acquire();
+                    try {
+                        return play(gameSeed);
+                    } finally {
+                        running.release();
+                    }
+                }));
+            }
+            Stats stats = new Stats();
+            for (Future<GameResult> result : results) {
+                stats.add(result.get());
+            }
+            return stats;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor from Java 21, or a fixed pool of platform threads before
+    private static ExecutorService newVirtualThreadExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "arena");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // Thread.startVirtualThread from Java 21, or a daemon platform thread before
+    static void startThread(Runnable task) {
+        try {
+            Thread.class.getMethod("startVirtualThread", Runnable.class).invoke(null, task);
+        } catch (ReflectiveOperationException e) {
+            Thread thread = new Thread(task, "arena");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Plays pairs of games, the same seed with both sides, until sprt decides or after maxPairs pairs. The map of initReferee
+    // is mirrored, so a pair cancels most of the luck of the seed.
+    public Sprt runSprt(Sprt sprt, long firstSeed, int maxPairs, int concurrency) throws InterruptedException, ExecutionException {
+        ExecutorService executor = newVirtualThreadExecutor(concurrency);
+        CompletionService<GameResult[]> pairs = new ExecutorCompletionService<>(executor);
+        try {
+            long seed = firstSeed;
+            int submitted = 0;
+            int running = 0;
+            while (sprt.decision() == 0 && (running > 0 || submitted < maxPairs)) {
+                while (running < concurrency && submitted < maxPairs) {
+                    long pairSeed = seed++;
+                    pairs.submit(() -> new GameResult[] { play(pairSeed, false), play(pairSeed, true) });
+                    submitted++;
+                    running++;
+                }
+                GameResult[] pair = pairs.take().get();
+                running--;
+                sprt.add(pair[0], pair[1]);
+            }
+            return sprt;
+        } finally {
+            executor.shutdownNow();
+        }
     }
-}
\ No newline at end of file
+
+    public GameResult play(long seed) {
+        return play(seed, (seed & 1) != 0);
+    }
+
+    // swapped: the bot plays the second player
+    public GameResult play(long seed, boolean swapped) {
+        Bot[] bots = new Bot[2];
+        bots[swapped ? 1 : 0] = bot.get();
+        bots[swapped ? 0 : 1] = opponent.get();
+        Referee referee;
+        try {
+            referee = new Referee(System.in, System.out, System.err);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Properties prop = new Properties();
+        prop.putAll(config);
+        prop.setProperty("seed", String.valueOf(seed));
+        String error = null;
+        int round = 0;
+        Referee.ReplayWriter replay = null;
+        try {
+            referee.initReferee(2, prop);
+            if (replays != null) {
+                replay = new Referee.ReplayWriter(referee, REPLAY_KEYFRAME_INTERVAL);
+                replay.frame(referee);
+            }
+            int maxRounds = referee.getMaxRoundCount(2);
+            while (round < maxRounds) {
+                referee.prepare(round);
+                for (int playerIdx = 0; playerIdx < 2; playerIdx++) {
+                    try {
+                        String[] input = referee.getInputForPlayer(round, playerIdx);
+                        long start = System.nanoTime();
+                        String[] outputs = bots[playerIdx].play(input);
+                        latencies[playerIdx == (swapped ? 1 : 0) ? 0 : 1].add(System.nanoTime() - start);
+                        int expected = referee.getExpectedOutputLineCountForPlayer(playerIdx);
+                        if (outputs.length < expected) {
+                            throw new TimeoutException(outputs.length + " lines instead of " + expected);
+                        }
+                        // like the game server, extra lines are not read
+                        referee.handlePlayerOutput(0, round, playerIdx, Arrays.copyOf(outputs, expected));
+                    } catch (InvalidInputException e) {
+                        // handlePlayerOutput already sank the ships of the player
+                        error = error != null ? error : "$" + playerIdx + " round " + round + ": " + e.getMessage();
+                    } catch (Exception e) {
+                        referee.setPlayerTimeout(0, round, playerIdx);
+                        error = error != null ? error : "$" + playerIdx + " round " + round + ": " + e;
+                    }
+                }
+                try {
+                    referee.updateGame(round++);
+                } finally {
+                    if (replay != null) {
+                        replay.frame(referee);
+                    }
+                }
+            }
+        } catch (GameOverException e) {
+            // a player has no ship left
+        } catch (InvalidFormatException e) {
+            error = e.toString();
+        } finally {
+            bots[0].close();
+            bots[1].close();
+        }
+        if (replay != null) {
+            try {
+                Files.write(replays.resolve(seed + (swapped ? "-swapped" : "") + ".replay"), replay.finish());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        int score = referee.getScore(swapped ? 1 : 0);
+        int opponentScore = referee.getScore(swapped ? 0 : 1);
+        return new GameResult(seed, score, opponentScore, round, error);
+    }
+
+    // The Player of this file as a bot, with a time limit of turnMillis per turn
+    public static Bot player(long firstTurnMillis, long turnMillis) {
+        Player player;
+        try {
+            player = new Player(firstTurnMillis, turnMillis, 1);
+        } catch (IOException | InvalidFormatException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Bot() {
+            public String[] play(String[] input) throws Exception {
+                StringBuilder lines = new StringBuilder();
+                for (String line : input) {
+                    lines.append(line).append('\n');
+                }
+                return player.play(new Referee.InputReader(new ByteArrayInputStream(lines.toString().getBytes())));
+            }
+
+            public void close() {
+                player.close();
+            }
+        };
+    }
+
+    // Player against itself: Arena [games] [threads] [turnMillis] [firstSeed]
+    public static void main(String... args) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long turnMillis = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        long firstSeed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        if (!Boolean.getBoolean("arena.verbose")) {
+            // the bots log every turn on stderr
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        Arena arena = new Arena(() -> player(turnMillis, turnMillis), () -> player(turnMillis, turnMillis), new Properties());
+        if (System.getProperty("arena.replays") != null) {
+            arena.recordReplays(Paths.get(System.getProperty("arena.replays")));
+        }
+        long start = System.currentTimeMillis();
+        Stats stats = arena.run(firstSeed, games, threads);
+        System.out.println(stats);
+        System.out.println("latency: " + arena.latencies[0]);
+        System.out.println(String.format("%.1f games/s", stats.games * 1000.0 / Math.max(1, System.currentTimeMillis() - start)));
+    }
+}
@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// ArrayReferee loaded from a game then played next to it: the same entities after each updateGame, the same eval, and the
+// same rollout scores in Solution.eval with and without the array engine
+class ArrayRefereeTest {
+    private static final int GAMES = 200;
+    private static final int MAP_WIDTH = 23;
+    private static final int MAP_HEIGHT = 21;
+    private static final Referee.Command[] COMMANDS = { Referee.Command.WAIT, Referee.Command.FASTER, Referee.Command.SLOWER,
+            Referee.Command.PORT, Referee.Command.STARBOARD, Referee.Command.MINE };
+
+    @Test
+    void updateGamePlaysLikeTheReferee() throws Exception {
+        for (long seed = 1; seed <= GAMES; seed++) {
+            Random random = new Random(seed);
+            Referee referee = Games.start(seed);
+            int round = Games.playRounds(referee, 0, random.nextInt(40), random);
+            // loadFrom skips the damage of the last turn, which prepare clears
+            referee.prepare(round);
+            Referee.ArrayReferee board = new Referee.ArrayReferee();
+            board.loadFrom(referee);
+            assertEquals(state(referee), state(board), "seed " + seed + " loaded");
+            boolean running = true;
+            for (; running; round++) {
+                referee.prepare(round);
+                board.prepare();
+                for (int p = 0; p < 2; p++) {
+                    int[] actions = actions(referee.getExpectedOutputLineCountForPlayer(p), random);
+                    String[] outputs = new String[actions.length];
+                    for (int i = 0; i < actions.length; i++) {
+                        outputs[i] = Referee.Command.format(actions[i]);
+                    }
+                    referee.handlePlayerOutput(0, round, p, outputs);
+                    board.applyActions(p, actions);
+                }
+                try {
+                    referee.updateGame(round);
+                } catch (GameOverException e) {
+                    running = false;
+                }
+                assertEquals(!running, board.updateGame(), "seed " + seed + " round " + round);
+                assertEquals(state(referee), state(board), "seed " + seed + " round " + round);
+                for (int p = 0; p < 2; p++) {
+                    assertEquals(referee.eval(p), board.eval(p), "seed " + seed + " round " + round + " player " + p);
+                }
+            }
+        }
+    }
+
+    @Test
+    void rolloutsScoreLikeTheJournal() throws Exception {
+        for (long seed = 1; seed <= GAMES; seed++) {
+            Random random = new Random(seed);
+            Referee referee = Games.start(seed);
+            Games.playRounds(referee, 0, random.nextInt(150), random);
+            Referee.Solution journal = new Referee.Solution(referee, 1);
+            journal.randomize();
+            Referee.Solution array = new Referee.Solution(referee, 1);
+            array.copyFrom(journal);
+            array.useArrayEngine();
+            journal.eval(1);
+            array.eval(1);
+            assertEquals(journal.sumScore, array.sumScore, "seed " + seed);
+            assertArrayEquals(journal.score, array.score, "seed " + seed);
+        }
+    }
+
+    // Command encoded actions with targets up to two cells off the map
+    private static int[] actions(int count, Random random) {
+        int[] actions = new int[count];
+        for (int i = 0; i < count; i++) {
+            int command = random.nextInt(10);
+            int x = random.nextInt(MAP_WIDTH + 4) - 2;
+            int y = random.nextInt(MAP_HEIGHT + 4) - 2;
+            if (command < 3) {
+                actions[i] = Referee.Command.MOVE.encode(x, y);
+            } else if (command < 5) {
+                actions[i] = Referee.Command.FIRE.encode(x, y);
+            } else {
+                actions[i] = COMMANDS[random.nextInt(COMMANDS.length)].encode();
+            }
+        }
+        return actions;
+    }
+
+    private static String state(Referee referee) throws ReflectiveOperationException {
+        StringBuilder state = new StringBuilder();
+        for (Object element : (List<?>) Games.field(referee, "ships")) {
+            Referee.Ship ship = (Referee.Ship) element;
+            state.append(String.format("ship %d %s %d %d %d %d %d%n", ship.id, ship.position, ship.orientation, ship.speed, ship.health,
+                    ship.mineCooldown, ship.cannonCooldown));
+        }
+        for (Object element : (List<?>) Games.field(referee, "barrels")) {
+            Referee.RumBarrel barrel = (Referee.RumBarrel) element;
+            state.append(String.format("barrel %d %s %d%n", barrel.id, barrel.position, (Integer) value(barrel, "health")));
+        }
+        for (Object element : (List<?>) Games.field(referee, "mines")) {
+            Referee.Mine mine = (Referee.Mine) element;
+            state.append(String.format("mine %d %s%n", mine.id, mine.position));
+        }
+        for (Object element : (List<?>) Games.field(referee, "cannonballs")) {
+            Referee.Cannonball ball = (Referee.Cannonball) element;
+            state.append(String.format("cannonball %d %s %d %d,%d %d%n", ball.id, ball.position, ball.ownerEntityId, ball.srcX, ball.srcY,
+                    ball.remainingTurns));
+        }
+        for (Object damage : (List<?>) Games.field(referee, "damage")) {
+            state.append(String.format("damage %s %d %b%n", value(damage, "position"), (Integer) value(damage, "health"),
+                    (Boolean) value(damage, "hit")));
+        }
+        return state.toString();
+    }
+
+    private static String state(Referee.ArrayReferee board) {
+        StringBuilder state = new StringBuilder();
+        for (int i = 0; i < board.shipCount; i++) {
+            state.append(String.format("ship %d %s %d %d %d %d %d%n", board.shipId[i], coord(board.shipCell[i]),
+                    board.shipOrientation[i], board.shipSpeed[i], board.shipHealth[i], board.shipMineCooldown[i], board.shipCannonCooldown[i]));
+        }
+        for (int i = 0; i < board.barrelCount; i++) {
+            state.append(String.format("barrel %d %s %d%n", board.barrelId[i], coord(board.barrelCell[i]), board.barrelHealth[i]));
+        }
+        for (int i = 0; i < board.mineCount; i++) {
+            state.append(String.format("mine %d %s%n", board.mineId[i], coord(board.mineCell[i])));
+        }
+        for (int i = 0; i < board.cannonballCount; i++) {
+            state.append(String.format("cannonball %d %s %d %d,%d %d%n", board.cannonballId[i], coord(board.cannonballCell[i]),
+                    board.cannonballOwner[i], board.cannonballSrcX[i], board.cannonballSrcY[i], board.cannonballRemainingTurns[i]));
+        }
+        for (int i = 0; i < board.damageCount; i++) {
+            state.append(String.format("damage %s %d %b%n", coord(board.damageCell[i]), board.damageHealth[i], board.damageHit[i]));
+        }
+        return state.toString();
+    }
+
+    private static Referee.Coord coord(int cell) {
+        return Referee.Coord.of(Referee.HexGrid.X[cell], Referee.HexGrid.Y[cell]);
+    }
+
+    // Private field of an entity
+    private static Object value(Object entity, String name) throws ReflectiveOperationException {
+        Field field = entity.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(entity);
+    }
+}
@@ -0,0 +1,51 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+// Games played side by side on several threads give their entities the same ids as games played alone
+class EntityIdTest {
+    private static final int GAMES = 32;
+
+    @Test
+    void concurrentGamesAreDeterministic() throws Exception {
+        List<String> alone = new ArrayList<>();
+        for (int seed = 1; seed <= GAMES; seed++) {
+            alone.add(game(seed));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> games = new ArrayList<>();
+            for (int repeat = 0; repeat < 4; repeat++) {
+                for (int seed = 1; seed <= GAMES; seed++) {
+                    long gameSeed = seed;
+                    games.add(executor.submit(() -> game(gameSeed)));
+                }
+            }
+            for (int i = 0; i < games.size(); i++) {
+                assertEquals(alone.get(i % GAMES), games.get(i).get(), "seed " + (i % GAMES + 1));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // The views of every round of the game of seed, which hold the entity ids
+    private static String game(long seed) throws Exception {
+        Referee referee = Games.start(seed);
+        Random random = new Random(seed);
+        StringBuilder views = new StringBuilder();
+        boolean running = true;
+        for (int round = 0; round < 60 && running; round++) {
+            running = Games.play(referee, round, random);
+            views.append(Games.view(referee, round)).append('\n');
+        }
+        return views.toString();
+    }
+}
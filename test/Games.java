@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+// Seeded games played with random commands, and the comparisons of game states shared by the tests
+final class Games {
+    private static final int MAP_WIDTH = 23;
+    private static final int MAP_HEIGHT = 21;
+    private static final String[] COMMANDS = { "WAIT", "FASTER", "SLOWER", "PORT", "STARBOARD", "MINE" };
+
+    private Games() {
+    }
+
+    // The initial state of the game of seed
+    static Referee start(long seed) throws Exception {
+        Referee referee = new Referee(System.in, System.out, System.err);
+        Properties prop = new Properties();
+        prop.setProperty("seed", String.valueOf(seed));
+        referee.initReferee(2, prop);
+        return referee;
+    }
+
+    // Random commands for the ships of playerIdx, with targets up to two cells off the map and a few messages
+    static String[] commands(Referee referee, int playerIdx, Random random) {
+        String[] outputs = new String[referee.getExpectedOutputLineCountForPlayer(playerIdx)];
+        for (int i = 0; i < outputs.length; i++) {
+            int command = random.nextInt(10);
+            if (command < 3) {
+                outputs[i] = "MOVE " + (random.nextInt(MAP_WIDTH + 4) - 2) + " " + (random.nextInt(MAP_HEIGHT + 4) - 2);
+            } else if (command < 5) {
+                outputs[i] = "FIRE " + (random.nextInt(MAP_WIDTH + 4) - 2) + " " + (random.nextInt(MAP_HEIGHT + 4) - 2);
+            } else {
+                outputs[i] = COMMANDS[random.nextInt(COMMANDS.length)];
+            }
+            if (random.nextInt(20) == 0) {
+                outputs[i] += " yo ho " + random.nextInt(3);
+            }
+        }
+        return outputs;
+    }
+
+    // Prepares round and hands random commands to both players
+    static void handleOutputs(Referee referee, int round, Random random) throws Exception {
+        referee.prepare(round);
+        for (int p = 0; p < 2; p++) {
+            referee.handlePlayerOutput(0, round, p, commands(referee, p, random));
+        }
+    }
+
+    // Plays round with random commands, false when the game is over
+    static boolean play(Referee referee, int round, Random random) throws Exception {
+        handleOutputs(referee, round, random);
+        try {
+            referee.updateGame(round);
+            return true;
+        } catch (GameOverException e) {
+            return false;
+        }
+    }
+
+    // Plays up to count rounds from round while the game runs, returns the round after the last one played
+    static int playRounds(Referee referee, int round, int count, Random random) throws Exception {
+        int end = round + count;
+        while (round < end && play(referee, round, random)) {
+            round++;
+        }
+        return round < end ? round + 1 : round;
+    }
+
+    // What the players and the viewer see of the game
+    static String view(Referee referee, int round) {
+        return String.join("\n", referee.getInputForPlayer(round, 0)) + "\n#\n" + String.join("\n", referee.getInputForPlayer(round, 1))
+                + "\n#\n" + String.join("\n", referee.getFrameDataForView(round, round, true));
+    }
+
+    // Fails unless actual holds the same values as expected, compared field by field through the object graph with the same
+    // sharing of objects. Transient fields are caches and are skipped, so are the fields of java.util.Random, which
+    // SimulationRandom does not use.
+    static void assertSameState(Object expected, Object actual) throws IllegalAccessException {
+        compare(expected, actual, expected.getClass().getSimpleName(), new IdentityHashMap<>());
+    }
+
+    private static void compare(Object expected, Object actual, String path, Map<Object, Object> seen) throws IllegalAccessException {
+        if (expected == null || actual == null) {
+            if (expected != actual) {
+                fail(path + ": " + expected + " but was " + actual);
+            }
+            return;
+        }
+        if (expected.getClass() != actual.getClass()) {
+            fail(path + ": " + expected.getClass() + " but was " + actual.getClass());
+        }
+        if (expected instanceof String || expected instanceof Number || expected instanceof Boolean || expected instanceof Character
+                || expected instanceof Enum || expected instanceof Referee.Coord) {
+            if (!expected.equals(actual)) {
+                fail(path + ": " + expected + " but was " + actual);
+            }
+            return;
+        }
+        if (seen.containsKey(expected)) {
+            if (seen.get(expected) != actual) {
+                fail(path + ": shared differently");
+            }
+            return;
+        }
+        seen.put(expected, actual);
+        if (expected instanceof List) {
+            List<?> expectedList = (List<?>) expected;
+            List<?> actualList = (List<?>) actual;
+            if (expectedList.size() != actualList.size()) {
+                fail(path + ": size " + expectedList.size() + " but was " + actualList.size());
+            }
+            for (int i = 0; i < expectedList.size(); i++) {
+                compare(expectedList.get(i), actualList.get(i), path + "[" + i + "]", seen);
+            }
+            return;
+        }
+        if (expected.getClass().isArray()) {
+            int length = Array.getLength(expected);
+            if (length != Array.getLength(actual)) {
+                fail(path + ": length " + length + " but was " + Array.getLength(actual));
+            }
+            for (int i = 0; i < length; i++) {
+                compare(Array.get(expected, i), Array.get(actual, i), path + "[" + i + "]", seen);
+            }
+            return;
+        }
+        for (Class<?> type = expected.getClass(); type != Object.class && type != Random.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                compare(field.get(expected), field.get(actual), path + "." + field.getName(), seen);
+            }
+        }
+    }
+
+    // Private field of Referee, for the tests of its caches
+    static Object field(Referee referee, String name) throws ReflectiveOperationException {
+        Field field = Referee.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(referee);
+    }
+}
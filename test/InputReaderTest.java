@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.InputMismatchException;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Scanner;
+
+import org.junit.jupiter.api.Test;
+
+// InputReader reads the turn input like the Scanner it replaces
+class InputReaderTest {
+    private static final Map<String, Integer> TYPES = Map.of("SHIP", Referee.InputReader.SHIP, "BARREL", Referee.InputReader.BARREL,
+            "MINE", Referee.InputReader.MINE, "CANNONBALL", Referee.InputReader.CANNONBALL);
+
+    @Test
+    void readsTheInputOfGames() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (long seed = 1; seed <= 20; seed++) {
+            Referee referee = Games.start(seed);
+            Random random = new Random(seed);
+            boolean running = true;
+            for (int round = 0; round < 100 && running; round++) {
+                running = Games.play(referee, round, random);
+                input.append(String.join("\n", referee.getInputForPlayer(round, (int) seed % 2))).append('\n');
+            }
+        }
+        byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+        Scanner scanner = new Scanner(new ByteArrayInputStream(bytes));
+        Referee.InputReader reader = new Referee.InputReader(new ByteArrayInputStream(bytes));
+        while (scanner.hasNext()) {
+            assertEquals(scanner.nextInt(), reader.nextInt());
+            int entities = scanner.nextInt();
+            assertEquals(entities, reader.nextInt());
+            for (int i = 0; i < entities; i++) {
+                assertEquals(scanner.nextInt(), reader.nextInt());
+                assertEquals(TYPES.get(scanner.next()), reader.nextEntityType());
+                for (int j = 0; j < 6; j++) {
+                    assertEquals(scanner.nextInt(), reader.nextInt());
+                }
+            }
+        }
+        assertThrows(NoSuchElementException.class, reader::nextInt);
+    }
+
+    @Test
+    void tokens() throws Exception {
+        Referee.InputReader reader = reader("ship Mine  -12\r\nBARRELS x 7");
+        assertEquals(Referee.InputReader.SHIP, reader.nextEntityType());
+        assertEquals(Referee.InputReader.MINE, reader.nextEntityType());
+        assertEquals(-12, reader.nextInt());
+        assertEquals(-1, reader.nextEntityType());
+        assertEquals(-1, reader.nextEntityType());
+        assertEquals(7, reader.nextInt());
+        assertThrows(NoSuchElementException.class, reader::nextEntityType);
+    }
+
+    @Test
+    void bytesAboveAscii() throws Exception {
+        // 0xFF is neither the end of input nor the end of a token
+        Referee.InputReader reader = new Referee.InputReader(new ByteArrayInputStream(new byte[] { 'S', 'H', (byte) 0xFF, 'I', 'P', ' ',
+                '3', ' ', 'M', 'I', 'N', 'E', (byte) 0xE9, ' ', '4' }));
+        assertEquals(-1, reader.nextEntityType());
+        assertEquals(3, reader.nextInt());
+        assertEquals(-1, reader.nextEntityType());
+        assertEquals(4, reader.nextInt());
+    }
+
+    @Test
+    void notNumbers() throws Exception {
+        assertThrows(InputMismatchException.class, () -> reader("SHIP").nextInt());
+        assertThrows(InputMismatchException.class, () -> reader("-").nextInt());
+        assertThrows(InputMismatchException.class, () -> reader("- 1").nextInt());
+        assertThrows(InputMismatchException.class, () -> reader("12x").nextInt());
+        assertThrows(NoSuchElementException.class, () -> reader(" \n").nextInt());
+    }
+
+    private static Referee.InputReader reader(String input) {
+        return new Referee.InputReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,83 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Turns played under the undo journal and rolled back, and the Zobrist hash kept up to date by the turn phases
+class JournalTest {
+    private static final int GAMES = 100;
+
+    @Test
+    void journaledTurnsPlayLikeOtherTurns() throws Exception {
+        for (long seed = 1; seed <= GAMES; seed++) {
+            Referee journaled = Games.start(seed);
+            Referee plain = journaled.snapshot();
+            Random random = new Random(seed);
+            journaled.journalMark();
+            for (int round = 0; round < 30; round++) {
+                long commands = random.nextLong();
+                boolean running = Games.play(journaled, round, new Random(commands));
+                assertEquals(running, Games.play(plain, round, new Random(commands)));
+                assertEquals(Games.view(plain, round), Games.view(journaled, round), "seed " + seed + " round " + round);
+                if (!running) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Test
+    void undoRestoresTheMarkedState() throws Exception {
+        for (long seed = 1; seed <= GAMES; seed++) {
+            Referee referee = Games.start(seed);
+            Random random = new Random(seed);
+            int round = Games.playRounds(referee, 0, 20, random);
+            Referee root = (Referee) ObjectCloner.deepCopy(referee);
+            int rootMark = referee.journalMark();
+            round = Games.playRounds(referee, round, 5, random);
+            Referee middle = (Referee) ObjectCloner.deepCopy(referee);
+            int middleMark = referee.journalMark();
+            Games.playRounds(referee, round, 8, random);
+            referee.undo(middleMark);
+            Games.assertSameState(middle, referee);
+            Games.playRounds(referee, round, 3, random);
+            referee.undo(rootMark);
+            Games.assertSameState(root, referee);
+            referee.stopJournal();
+        }
+    }
+
+    @Test
+    void incrementalHashMatchesTheHashOfTheState() throws Exception {
+        for (long seed = 1; seed <= GAMES; seed++) {
+            Referee referee = Games.start(seed);
+            Random random = new Random(seed);
+            boolean running = true;
+            for (int round = 0; round < 40 && running; round++) {
+                running = Games.play(referee, round, random);
+                assertEquals(rehashed(referee), referee.zobristHash(), "seed " + seed + " round " + round);
+            }
+            long hash = referee.zobristHash();
+            int mark = referee.journalMark();
+            for (int round = 40; round < 46 && running; round++) {
+                running = Games.play(referee, round, random);
+                assertEquals(rehashed(referee), referee.zobristHash(), "journaled, seed " + seed + " round " + round);
+            }
+            referee.undo(mark);
+            referee.stopJournal();
+            assertEquals(hash, referee.zobristHash());
+            assertEquals(hash, rehashed(referee));
+        }
+    }
+
+    // The hash of a copy of referee computed from scratch
+    private static long rehashed(Referee referee) throws ReflectiveOperationException {
+        Referee copy = referee.snapshot();
+        Field valid = Referee.class.getDeclaredField("zobristValid");
+        valid.setAccessible(true);
+        valid.setBoolean(copy, false);
+        return copy.zobristHash();
+    }
+}
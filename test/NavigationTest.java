@@ -0,0 +1,184 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import org.junit.jupiter.api.Test;
+
+// The memoized moveTo decisions of Navigation against the decisions computed each time, and against the rules of
+// Ship.moveTo before the memoization
+class NavigationTest {
+    private static final int MAP_WIDTH = 23;
+    private static final int MAP_HEIGHT = 21;
+
+    @Test
+    void tableMatchesComputeMove() {
+        int kept = 0;
+        for (int x = 0; x < MAP_WIDTH; x++) {
+            for (int y = 0; y < MAP_HEIGHT; y++) {
+                Referee.Coord position = Referee.Coord.of(x, y);
+                for (int orientation = 0; orientation < 6; orientation++) {
+                    // speed 3 is not in the table and keeps the action
+                    for (int speed = 0; speed <= 3; speed++) {
+                        for (int targetX = -1; targetX <= MAP_WIDTH; targetX++) {
+                            for (int targetY = -1; targetY <= MAP_HEIGHT; targetY++) {
+                                int expected = Referee.Ship.computeMove(position, orientation, speed, Referee.Coord.of(targetX, targetY));
+                                // the first call fills the table, the second one reads it
+                                for (int call = 0; call < 2; call++) {
+                                    int move = Referee.Navigation.move(position, orientation, speed, targetX, targetY);
+                                    if (move != expected) {
+                                        fail(x + "," + y + " orientation " + orientation + " speed " + speed + " to " + targetX + ","
+                                                + targetY + ": " + move + " but computeMove gives " + expected);
+                                    }
+                                }
+                                if (expected == Referee.Navigation.NONE) {
+                                    kept++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue(kept > 0);
+    }
+
+    @Test
+    void moveToMatchesTheOriginalRules() {
+        Referee.Ship ship = new Referee.Ship(0, 0, 0, 0, 100, 0);
+        for (int x = -1; x <= MAP_WIDTH; x++) {
+            for (int y = -1; y <= MAP_HEIGHT; y++) {
+                Referee.Coord position = Referee.Coord.of(x, y);
+                for (int orientation = 0; orientation < 6; orientation++) {
+                    for (int speed = 0; speed <= 3; speed++) {
+                        for (int targetX = -2; targetX <= MAP_WIDTH + 1; targetX++) {
+                            for (int targetY = -2; targetY <= MAP_HEIGHT + 1; targetY++) {
+                                ship.position = position;
+                                ship.orientation = orientation;
+                                ship.speed = speed;
+                                // an action moveTo never chooses, to see when it keeps the action
+                                ship.action = Referee.Action.MINE;
+                                ship.moveTo(targetX, targetY);
+                                Referee.Action expected = originalMoveTo(position, orientation, speed, targetX, targetY, Referee.Action.MINE);
+                                if (ship.action != expected) {
+                                    fail(x + "," + y + " orientation " + orientation + " speed " + speed + " to " + targetX + "," + targetY
+                                            + ": " + ship.action + " but the original rules give " + expected);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Ship.moveTo as it was before Navigation, returning the new action of a ship whose action was action
+    private static Referee.Action originalMoveTo(Referee.Coord currentPosition, int orientation, int speed, int x, int y,
+            Referee.Action action) {
+        Referee.Coord targetPosition = Referee.Coord.of(x, y);
+
+        if (currentPosition.equals(targetPosition)) {
+            return Referee.Action.SLOWER;
+        }
+
+        double targetAngle, angleStraight, anglePort, angleStarboard, centerAngle, anglePortCenter, angleStarboardCenter;
+
+        switch (speed) {
+        case 2:
+            action = Referee.Action.SLOWER;
+            break;
+        case 1:
+            // Suppose we've moved first
+            currentPosition = currentPosition.neighbor(orientation);
+            if (!currentPosition.isInsideMap()) {
+                action = Referee.Action.SLOWER;
+                break;
+            }
+
+            // Target reached at next turn
+            if (currentPosition.equals(targetPosition)) {
+                action = null;
+                break;
+            }
+
+            // For each neighbor cell, find the closest to target
+            targetAngle = currentPosition.angle(targetPosition);
+            angleStraight = Math.min(Math.abs(orientation - targetAngle), 6 - Math.abs(orientation - targetAngle));
+            anglePort = Math.min(Math.abs((orientation + 1) - targetAngle), Math.abs((orientation - 5) - targetAngle));
+            angleStarboard = Math.min(Math.abs((orientation + 5) - targetAngle), Math.abs((orientation - 1) - targetAngle));
+
+            centerAngle = currentPosition.angle(Referee.Coord.of(MAP_WIDTH / 2, MAP_HEIGHT / 2));
+            anglePortCenter = Math.min(Math.abs((orientation + 1) - centerAngle), Math.abs((orientation - 5) - centerAngle));
+            angleStarboardCenter = Math.min(Math.abs((orientation + 5) - centerAngle), Math.abs((orientation - 1) - centerAngle));
+
+            // Next to target with bad angle, slow down then rotate (avoid to turn around the target!)
+            if (currentPosition.distanceTo(targetPosition) == 1 && angleStraight > 1.5) {
+                action = Referee.Action.SLOWER;
+                break;
+            }
+
+            Integer distanceMin = null;
+
+            // Test forward
+            Referee.Coord nextPosition = currentPosition.neighbor(orientation);
+            if (nextPosition.isInsideMap()) {
+                distanceMin = nextPosition.distanceTo(targetPosition);
+                action = null;
+            }
+
+            // Test port
+            nextPosition = currentPosition.neighbor((orientation + 1) % 6);
+            if (nextPosition.isInsideMap()) {
+                int distance = nextPosition.distanceTo(targetPosition);
+                if (distanceMin == null || distance < distanceMin || distance == distanceMin && anglePort < angleStraight - 0.5) {
+                    distanceMin = distance;
+                    action = Referee.Action.PORT;
+                }
+            }
+
+            // Test starboard
+            nextPosition = currentPosition.neighbor((orientation + 5) % 6);
+            if (nextPosition.isInsideMap()) {
+                int distance = nextPosition.distanceTo(targetPosition);
+                if (distanceMin == null || distance < distanceMin
+                        || (distance == distanceMin && angleStarboard < anglePort - 0.5 && action == Referee.Action.PORT)
+                        || (distance == distanceMin && angleStarboard < angleStraight - 0.5 && action == null)
+                        || (distance == distanceMin && action == Referee.Action.PORT && angleStarboard == anglePort
+                                && angleStarboardCenter < anglePortCenter)
+                        || (distance == distanceMin && action == Referee.Action.PORT && angleStarboard == anglePort
+                                && angleStarboardCenter == anglePortCenter && (orientation == 1 || orientation == 4))) {
+                    distanceMin = distance;
+                    action = Referee.Action.STARBOARD;
+                }
+            }
+            break;
+        case 0:
+            // Rotate ship towards target
+            targetAngle = currentPosition.angle(targetPosition);
+            angleStraight = Math.min(Math.abs(orientation - targetAngle), 6 - Math.abs(orientation - targetAngle));
+            anglePort = Math.min(Math.abs((orientation + 1) - targetAngle), Math.abs((orientation - 5) - targetAngle));
+            angleStarboard = Math.min(Math.abs((orientation + 5) - targetAngle), Math.abs((orientation - 1) - targetAngle));
+
+            centerAngle = currentPosition.angle(Referee.Coord.of(MAP_WIDTH / 2, MAP_HEIGHT / 2));
+            anglePortCenter = Math.min(Math.abs((orientation + 1) - centerAngle), Math.abs((orientation - 5) - centerAngle));
+            angleStarboardCenter = Math.min(Math.abs((orientation + 5) - centerAngle), Math.abs((orientation - 1) - centerAngle));
+
+            Referee.Coord forwardPosition = currentPosition.neighbor(orientation);
+
+            action = null;
+
+            if (anglePort <= angleStarboard) {
+                action = Referee.Action.PORT;
+            }
+
+            if (angleStarboard < anglePort || angleStarboard == anglePort && angleStarboardCenter < anglePortCenter
+                    || angleStarboard == anglePort && angleStarboardCenter == anglePortCenter && (orientation == 1 || orientation == 4)) {
+                action = Referee.Action.STARBOARD;
+            }
+
+            if (forwardPosition.isInsideMap() && angleStraight <= anglePort && angleStraight <= angleStarboard) {
+                action = Referee.Action.FASTER;
+            }
+            break;
+        }
+        return action;
+    }
+}
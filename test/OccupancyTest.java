@@ -0,0 +1,50 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// The barrel and mine counts and first entities per cell kept by the turn phases and undo, against the ones rebuilt from the
+// lists
+class OccupancyTest {
+    private static final int GAMES = 100;
+
+    @Test
+    void cellCountsFollowTheLists() throws Exception {
+        for (long seed = 1; seed <= GAMES; seed++) {
+            Referee referee = Games.start(seed);
+            Random random = new Random(seed);
+            boolean running = true;
+            for (int round = 0; round < 30 && running; round++) {
+                running = Games.play(referee, round, random);
+                assertRebuiltAlike(referee, "seed " + seed + " round " + round);
+            }
+            int mark = referee.journalMark();
+            for (int round = 30; round < 38 && running; round++) {
+                running = Games.play(referee, round, random);
+                assertRebuiltAlike(referee, "journaled, seed " + seed + " round " + round);
+            }
+            referee.undo(mark);
+            referee.stopJournal();
+            assertRebuiltAlike(referee, "undo, seed " + seed);
+        }
+    }
+
+    private static void assertRebuiltAlike(Referee referee, String message) throws ReflectiveOperationException {
+        if (!(boolean) Games.field(referee, "occupancyValid")) {
+            return;
+        }
+        int[] barrels = ((int[]) Games.field(referee, "barrelsOnCell")).clone();
+        int[] mines = ((int[]) Games.field(referee, "minesOnCell")).clone();
+        Object[] firstBarrels = ((Object[]) Games.field(referee, "barrelOnCell")).clone();
+        Object[] firstMines = ((Object[]) Games.field(referee, "mineOnCell")).clone();
+        Method rebuild = Referee.class.getDeclaredMethod("rebuildOccupancy");
+        rebuild.setAccessible(true);
+        rebuild.invoke(referee);
+        assertArrayEquals((int[]) Games.field(referee, "barrelsOnCell"), barrels, "barrels, " + message);
+        assertArrayEquals((int[]) Games.field(referee, "minesOnCell"), mines, "mines, " + message);
+        assertArrayEquals((Object[]) Games.field(referee, "barrelOnCell"), firstBarrels, "first barrels, " + message);
+        assertArrayEquals((Object[]) Games.field(referee, "mineOnCell"), firstMines, "first mines, " + message);
+    }
+}
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+// OutputParser accepts the lines of the PLAYER_INPUT patterns and reads the same coordinates and message from them
+class OutputParserTest {
+    private static final Pattern[] PATTERNS = { Referee.PLAYER_INPUT_MOVE_PATTERN, Referee.PLAYER_INPUT_SLOWER_PATTERN,
+            Referee.PLAYER_INPUT_FASTER_PATTERN, Referee.PLAYER_INPUT_WAIT_PATTERN, Referee.PLAYER_INPUT_PORT_PATTERN,
+            Referee.PLAYER_INPUT_STARBOARD_PATTERN, Referee.PLAYER_INPUT_FIRE_PATTERN, Referee.PLAYER_INPUT_MINE_PATTERN };
+    private static final Referee.Command[] COMMANDS = { Referee.Command.MOVE, Referee.Command.SLOWER, Referee.Command.FASTER,
+            Referee.Command.WAIT, Referee.Command.PORT, Referee.Command.STARBOARD, Referee.Command.FIRE, Referee.Command.MINE };
+    // Keywords in several cases, whitespace and line terminators, numbers and letters that fold to ASCII ones
+    private static final String[] FRAGMENTS = { "MOVE", "move", "MoVe", "FIRE", "fire", "Fire", "MINE", "mine", "WAIT", "wait", "PORT",
+            "port", "STARBOARD", "starboard", "SLOWER", "slower", "FASTER", "faster", " ", "  ", "\t", "\n", "\r", "\u000B", "\f", "\u0085",
+            "\u2028", "\u2029", "\u00A0", "-", "0", "1", "12", "123456789", "99999999", "-5", "x", "hello", "\u017F", "\u0131", "\u212A", "S",
+            "I", "E", "\u00E9", "5 ", " 7" };
+    private static final String[] VALID = { "MOVE 3 4", "FIRE 12 -1", "move 0 0 ahoy", "FASTER", "slower  go", "PORT\tleft", "STARBOARD",
+            "WAIT", "MINE drop it", "Fire 1 2", "fire 1 2", "MOVE -12345678 99999999 far", "WAIT  " };
+
+    private final Referee.OutputParser parser = new Referee.OutputParser();
+
+    @Test
+    void randomLines() {
+        Random random = new Random(42);
+        for (int i = 0; i < 300_000; i++) {
+            StringBuilder line = new StringBuilder();
+            int fragments = 1 + random.nextInt(7);
+            for (int f = 0; f < fragments; f++) {
+                line.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            if (random.nextInt(3) == 0) {
+                line.insert(random.nextInt(line.length() + 1), (char) random.nextInt(0x3000));
+            }
+            assertSameParse(line.toString());
+        }
+    }
+
+    @Test
+    void mutatedCommands() {
+        Random random = new Random(7);
+        int accepted = 0;
+        for (int i = 0; i < 300_000; i++) {
+            StringBuilder line = new StringBuilder(VALID[random.nextInt(VALID.length)]);
+            int mutations = random.nextInt(3);
+            for (int m = 0; m < mutations; m++) {
+                int position = random.nextInt(line.length() + 1);
+                switch (random.nextInt(4)) {
+                case 0:
+                    line.insert(position, FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                    break;
+                case 1:
+                    if (position < line.length()) {
+                        line.deleteCharAt(position);
+                    }
+                    break;
+                case 2:
+                    if (position < line.length()) {
+                        char c = line.charAt(position);
+                        line.setCharAt(position, Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c));
+                    }
+                    break;
+                default:
+                    line.insert(position, (char) random.nextInt(128));
+                    break;
+                }
+            }
+            if (assertSameParse(line.toString())) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted > 100_000);
+    }
+
+    @Test
+    void fireIsCaseSensitive() {
+        assertEquals(Referee.Command.FIRE.ordinal(), parser.parse("FIRE 1 2"));
+        assertEquals(-1, parser.parse("fire 1 2"));
+        assertEquals(-1, parser.parse("Fire 1 2"));
+        assertEquals(Referee.Command.MOVE.ordinal(), parser.parse("mOvE 1 2"));
+        assertEquals(Referee.Command.FASTER.ordinal(), parser.parse("faster"));
+    }
+
+    // Compares the parse of line with the patterns, true when line is a command
+    private boolean assertSameParse(String line) {
+        String expected = "invalid";
+        for (int i = 0; i < PATTERNS.length; i++) {
+            Matcher matcher = PATTERNS[i].matcher(line);
+            if (matcher.matches()) {
+                expected = COMMANDS[i].name();
+                if (COMMANDS[i] == Referee.Command.MOVE || COMMANDS[i] == Referee.Command.FIRE) {
+                    expected += " " + Integer.parseInt(matcher.group("x")) + " " + Integer.parseInt(matcher.group("y"));
+                }
+                expected += " message " + matcher.group("message");
+                break;
+            }
+        }
+        int command = parser.parse(line);
+        String actual = "invalid";
+        if (command >= 0) {
+            actual = Referee.Command.values()[command].name();
+            if (command == Referee.Command.MOVE.ordinal() || command == Referee.Command.FIRE.ordinal()) {
+                actual += " " + parser.x + " " + parser.y;
+            }
+            actual += " message " + parser.message();
+        }
+        assertEquals(expected, actual, () -> "[" + line.replace("\n", "\\n").replace("\r", "\\r") + "]");
+        return command >= 0;
+    }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Binary replays give back the view frames of the game, read in order or at random
+class ReplayTest {
+    private static final int GAMES = 100;
+
+    @Test
+    void framesRoundTrip() throws Exception {
+        Random pick = new Random(5);
+        for (long seed = 1; seed <= GAMES; seed++) {
+            List<String[]> frames = new ArrayList<>();
+            byte[] replay = record(seed, (int) seed % 60 + 1, frames);
+            Referee.ReplayReader reader = new Referee.ReplayReader(ByteBuffer.wrap(replay));
+            assertEquals(seed, reader.getSeed());
+            assertEquals(frames.size(), reader.getFrameCount());
+            for (int i = 0; i < frames.size(); i++) {
+                assertArrayEquals(frames.get(i), reader.frame(i), "seed " + seed + " frame " + i);
+            }
+            for (int k = 0; k < 100; k++) {
+                int i = pick.nextInt(frames.size());
+                assertArrayEquals(frames.get(i), reader.frame(i), "seed " + seed + " frame " + i);
+            }
+        }
+    }
+
+    @Test
+    void mappedFile(@TempDir Path directory) throws Exception {
+        List<String[]> frames = new ArrayList<>();
+        Path file = directory.resolve("game.replay");
+        Files.write(file, record(7, 50, frames));
+        Referee.ReplayReader reader = Referee.ReplayReader.open(file);
+        assertEquals(frames.size(), reader.getFrameCount());
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            assertArrayEquals(frames.get(i), reader.frame(i), "frame " + i);
+        }
+    }
+
+    // The replay of the game of seed, whose view frames are added to frames
+    private static byte[] record(long seed, int keyframeInterval, List<String[]> frames) throws Exception {
+        Referee referee = Games.start(seed);
+        Referee.ReplayWriter writer = new Referee.ReplayWriter(referee, keyframeInterval);
+        referee.prepare(0);
+        frames.add(referee.getFrameDataForView(0, 0, true));
+        writer.frame(referee);
+        Random random = new Random(seed);
+        boolean running = true;
+        for (int round = 0; round < 200 && running; round++) {
+            running = Games.play(referee, round, random);
+            frames.add(referee.getFrameDataForView(round, round, true));
+            writer.frame(referee);
+        }
+        return writer.finish();
+    }
+}
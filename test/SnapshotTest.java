@@ -0,0 +1,46 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// snapshot and restoreFrom copy the same game state as the serialization of ObjectCloner.deepCopy
+class SnapshotTest {
+    private static final int GAMES = 60;
+
+    @Test
+    void copiesMatchTheSerializedCopy() throws Exception {
+        for (long seed = 1; seed <= GAMES; seed++) {
+            Referee referee = Games.start(seed);
+            // a board of another game, whose entities restoreFrom reuses
+            Referee reused = Games.start(seed + 1000);
+            Games.playRounds(reused, 0, 10, new Random(seed));
+            Random random = new Random(seed);
+            for (int round = 0; round < 30; round++) {
+                if (!Games.play(referee, round, random)) {
+                    break;
+                }
+                Referee serialized = (Referee) ObjectCloner.deepCopy(referee);
+                Referee snapshot = referee.snapshot();
+                reused.restoreFrom(referee);
+                Games.assertSameState(serialized, snapshot);
+                Games.assertSameState(serialized, reused);
+
+                // the copies play on like the original
+                for (int next = round + 1; next < round + 4; next++) {
+                    long commands = random.nextLong();
+                    boolean running = Games.play(serialized, next, new Random(commands));
+                    assertEquals(running, Games.play(snapshot, next, new Random(commands)));
+                    assertEquals(running, Games.play(reused, next, new Random(commands)));
+                    String view = Games.view(serialized, next);
+                    assertEquals(view, Games.view(snapshot, next), "snapshot, seed " + seed + " round " + next);
+                    assertEquals(view, Games.view(reused, next), "restoreFrom, seed " + seed + " round " + next);
+                    if (!running) {
+                        break;
+                    }
+                }
+                Games.assertSameState(serialized, reused);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// A viewer applying the frames that are not key frames to the last key frame sees the full frames
+class ViewFrameTest {
+    private static final int GAMES = 100;
+
+    @Test
+    void changesRebuildTheFullFrames() throws Exception {
+        for (long seed = 1; seed <= GAMES; seed++) {
+            Referee referee = Games.start(seed);
+            int shipsPerPlayer = referee.getExpectedOutputLineCountForPlayer(0);
+            Random random = new Random(seed);
+            Viewer viewer = new Viewer(shipsPerPlayer);
+            referee.prepare(0);
+            viewer.key(referee.getFrameDataForView(0, 0, true));
+            boolean running = true;
+            for (int round = 0; round < 200 && running; round++) {
+                if (random.nextInt(10) == 0) {
+                    // a journaled turn rolled back
+                    int mark = referee.journalMark();
+                    Games.play(referee, round, random);
+                    referee.undo(mark);
+                    referee.stopJournal();
+                }
+                if (random.nextInt(15) == 0) {
+                    referee.restoreFrom(referee.snapshot());
+                }
+                running = Games.play(referee, round, random);
+                if (random.nextInt(8) == 0) {
+                    viewer.key(referee.getFrameDataForView(round, round, true));
+                } else {
+                    viewer.changes(referee.getFrameDataForView(round, round, false));
+                }
+                assertEquals(Arrays.asList(referee.snapshot().getFrameDataForView(round, round, true)), viewer.frame(),
+                        "seed " + seed + " round " + round);
+            }
+        }
+    }
+
+    // Entity lines by id: ships of each player, then cannonballs, mines and barrels, in the order of the frames
+    private static final class Viewer {
+        private final int shipsPerPlayer;
+        private final String[] playerIds = new String[2];
+        private final List<Map<Integer, String>> entities = new ArrayList<>();
+        private List<String> damage;
+
+        Viewer(int shipsPerPlayer) {
+            this.shipsPerPlayer = shipsPerPlayer;
+        }
+
+        void key(String[] frame) {
+            entities.clear();
+            int line = 0;
+            for (int p = 0; p < 2; p++) {
+                playerIds[p] = frame[line++];
+                entities.add(new LinkedHashMap<>());
+                for (int i = 0; i < shipsPerPlayer; i++) {
+                    put(p, frame[line++]);
+                }
+            }
+            for (int list = 2; list < 5; list++) {
+                entities.add(new LinkedHashMap<>());
+                int count = Integer.parseInt(frame[line++]);
+                for (int i = 0; i < count; i++) {
+                    put(list, frame[line++]);
+                }
+            }
+            damage = Arrays.asList(frame).subList(line, frame.length);
+        }
+
+        void changes(String[] frame) {
+            int line = 0;
+            for (int p = 0; p < 2; p++) {
+                assertEquals(playerIds[p], frame[line++]);
+                int count = Integer.parseInt(frame[line++]);
+                for (int i = 0; i < count; i++) {
+                    assertTrue(entities.get(p).containsKey(id(frame[line])), "unknown ship");
+                    put(p, frame[line++]);
+                }
+            }
+            for (int list = 2; list < 5; list++) {
+                int count = Integer.parseInt(frame[line++]);
+                int changed = line;
+                line += count;
+                String[] removed = frame[line++].split(" ");
+                assertEquals(removed.length - 1, Integer.parseInt(removed[0]));
+                for (int i = 1; i < removed.length; i++) {
+                    assertNotNull(entities.get(list).remove(Integer.parseInt(removed[i])), "unknown removed id");
+                }
+                for (int i = changed; i < changed + count; i++) {
+                    put(list, frame[i]);
+                }
+            }
+            damage = Arrays.asList(frame).subList(line, frame.length);
+        }
+
+        List<String> frame() {
+            List<String> frame = new ArrayList<>();
+            for (int p = 0; p < 2; p++) {
+                frame.add(playerIds[p]);
+                frame.addAll(entities.get(p).values());
+            }
+            for (int list = 2; list < 5; list++) {
+                frame.add(String.valueOf(entities.get(list).size()));
+                frame.addAll(entities.get(list).values());
+            }
+            frame.addAll(damage);
+            return frame;
+        }
+
+        private void put(int list, String line) {
+            entities.get(list).put(id(line), line);
+        }
+
+        private static int id(String line) {
+            return Integer.parseInt(line.substring(0, line.indexOf(' ')));
+        }
+    }
+}